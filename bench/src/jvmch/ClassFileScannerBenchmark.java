@@ -0,0 +1,80 @@
+package jvmch;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This is the benchmark of the search for main classes, which is what annotate-jar-with-main-class-attribute
+ * spends most of its time on for large JAR files.
+ *
+ * The {@code scanClass} benchmark measures the throughput in classes, while {@code scanAll} scans all the classes
+ * in one go and reports the throughput in megabytes of class files as the {@code megabytes} counter.
+ *
+ * @author Maxim Buzdalov
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClassFileScannerBenchmark {
+    @Param({"20"})
+    public int classes;
+
+    @Param({"10", "1000", "16000"})
+    public int constantsPerClass;
+
+    private byte[][] classFiles;
+    private long totalBytes;
+    private final ClassFileScanner scanner = new ClassFileScanner();
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        File directory = SyntheticInputs.createTempDirectory();
+        try {
+            File[] sources = SyntheticInputs.writeSources(new File(directory, "src"), classes, constantsPerClass);
+            File jarFile = new File(directory, "classes.jar");
+            SyntheticInputs.compile(jarFile, sources);
+            List<byte[]> contents = SyntheticInputs.readClasses(jarFile);
+            classFiles = contents.toArray(new byte[contents.size()][]);
+            for (byte[] classFile : classFiles) {
+                totalBytes += classFile.length;
+            }
+        } finally {
+            SyntheticInputs.delete(directory);
+        }
+    }
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Counters {
+        public double megabytes;
+    }
+
+    @Benchmark
+    public boolean scanClass() throws IOException {
+        byte[] classFile = classFiles[next];
+        if (++next == classFiles.length) {
+            next = 0;
+        }
+        return scanner.scan(classFile, 0, classFile.length) && scanner.hasMainMethod();
+    }
+
+    @Benchmark
+    public int scanAll(Counters counters) throws IOException {
+        int mainClasses = 0;
+        for (byte[] classFile : classFiles) {
+            if (scanner.scan(classFile, 0, classFile.length) && scanner.hasMainMethod()) {
+                ++mainClasses;
+            }
+        }
+        counters.megabytes += totalBytes / 1048576.0;
+        return mainClasses;
+    }
+}
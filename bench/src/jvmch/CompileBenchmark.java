@@ -0,0 +1,65 @@
+package jvmch;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This is the benchmark of the end-to-end latency of compile-java-files, including the creation of the JAR file.
+ *
+ * @author Maxim Buzdalov
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompileBenchmark {
+    @Param({"1", "20", "200"})
+    public int classes;
+
+    @Param({"10", "1000"})
+    public int constantsPerClass;
+
+    @Param({"false", "true"})
+    public boolean inMemory;
+
+    private File directory;
+    private String[] args;
+    private Context context;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = SyntheticInputs.createTempDirectory();
+        File[] sources = SyntheticInputs.writeSources(new File(directory, "src"), classes, constantsPerClass);
+        List<String> arguments = new ArrayList<>();
+        arguments.add(new File(directory, "temp").getPath());
+        arguments.add(new File(directory, "result.jar").getPath());
+        if (inMemory) {
+            arguments.add("--in-memory");
+        }
+        for (File source : sources) {
+            arguments.add(source.getPath());
+        }
+        args = arguments.toArray(new String[arguments.size()]);
+        context = SyntheticInputs.silentContext();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        SyntheticInputs.delete(directory);
+    }
+
+    @Benchmark
+    public boolean compile() {
+        if (!new JavaCompiler().run(args, context)) {
+            throw new AssertionError("Compilation failed");
+        }
+        return true;
+    }
+}
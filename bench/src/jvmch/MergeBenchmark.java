@@ -0,0 +1,70 @@
+package jvmch;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This is the benchmark of merge-jar-files on library JAR files of the given total size.
+ *
+ * The throughput in megabytes of the source JAR files is reported as the {@code megabytes} counter.
+ *
+ * @author Maxim Buzdalov
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MergeBenchmark {
+    @Param({"4"})
+    public int libraries;
+
+    @Param({"1", "16", "64"})
+    public int megabytesPerLibrary;
+
+    @Param({"4096"})
+    public int entryBytes;
+
+    private File directory;
+    private String[] args;
+    private double sourceMegabytes;
+    private Context context;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = SyntheticInputs.createTempDirectory();
+        args = new String[libraries + 1];
+        args[0] = new File(directory, "result.jar").getPath();
+        for (int i = 0; i < libraries; ++i) {
+            File library = new File(directory, "library" + i + ".jar");
+            SyntheticInputs.writeLibraryJar(library, "lib" + i, (long) megabytesPerLibrary << 20, entryBytes, i);
+            args[i + 1] = library.getPath();
+            sourceMegabytes += library.length() / 1048576.0;
+        }
+        context = SyntheticInputs.silentContext();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        SyntheticInputs.delete(directory);
+    }
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Counters {
+        public double megabytes;
+    }
+
+    @Benchmark
+    public boolean merge(Counters counters) {
+        if (!new JarFilesMerger().run(args, context)) {
+            throw new AssertionError("Merging failed");
+        }
+        counters.megabytes += sourceMegabytes;
+        return true;
+    }
+}
@@ -0,0 +1,131 @@
+package jvmch;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.jar.JarEntry;
+import java.util.jar.JarInputStream;
+import java.util.jar.JarOutputStream;
+
+/**
+ * This is a generator of synthetic inputs for the benchmarks: Java sources, compiled classes and library JAR files
+ * of the given sizes.
+ *
+ * @author Maxim Buzdalov
+ */
+final class SyntheticInputs {
+    private SyntheticInputs() {}
+
+    /**
+     * Returns a context which discards everything the modules print.
+     */
+    static Context silentContext() {
+        PrintStream nothing = new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {}
+
+            @Override
+            public void write(byte[] b, int off, int len) {}
+        });
+        return new Context(nothing, nothing);
+    }
+
+    static File createTempDirectory() throws IOException {
+        return Files.createTempDirectory("jvmch-bench").toFile();
+    }
+
+    static void delete(File file) {
+        JavaCompiler.rmrf(file);
+    }
+
+    /**
+     * Writes the given number of source files to the given directory. Each class has the given number
+     * of string constants, and the first class has the main method.
+     */
+    static File[] writeSources(File directory, int classCount, int constantsPerClass) throws IOException {
+        directory.mkdirs();
+        File[] sources = new File[classCount];
+        for (int i = 0; i < classCount; ++i) {
+            StringBuilder source = new StringBuilder();
+            source.append("public class C").append(i).append(" {\n");
+            for (int c = 0; c < constantsPerClass; ++c) {
+                source.append("    static final String S").append(c)
+                        .append(" = \"constant ").append(i).append(' ').append(c).append("\";\n");
+            }
+            if (i + 1 < classCount) {
+                source.append("    static int next() { return C").append(i + 1).append(".class.getName().length(); }\n");
+            }
+            if (i == 0) {
+                source.append("    public static void main(String[] args) {\n")
+                        .append("        System.out.println(args.length);\n")
+                        .append("    }\n");
+            }
+            source.append("}\n");
+            sources[i] = new File(directory, "C" + i + ".java");
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(sources[i]), "UTF-8")) {
+                writer.write(source.toString());
+            }
+        }
+        return sources;
+    }
+
+    /**
+     * Compiles the given sources to the given JAR file using the compile-java-files module.
+     */
+    static void compile(File jarFile, File[] sources) throws IOException {
+        String[] args = new String[sources.length + 3];
+        args[0] = "unused";
+        args[1] = jarFile.getPath();
+        args[2] = "--in-memory";
+        for (int i = 0; i < sources.length; ++i) {
+            args[i + 3] = sources[i].getPath();
+        }
+        if (!new JavaCompiler().run(args, silentContext())) {
+            throw new IOException("Could not compile the synthetic sources");
+        }
+    }
+
+    /**
+     * Reads the contents of all the class files in the given JAR file.
+     */
+    static List<byte[]> readClasses(File jarFile) throws IOException {
+        List<byte[]> result = new ArrayList<>();
+        try (JarInputStream input = new JarInputStream(new FileInputStream(jarFile))) {
+            JarEntry entry;
+            byte[] buffer = new byte[8192];
+            while ((entry = input.getNextJarEntry()) != null) {
+                if (entry.getName().endsWith(".class")) {
+                    ByteArrayOutputStream contents = new ByteArrayOutputStream();
+                    int count;
+                    while ((count = input.read(buffer)) > 0) {
+                        contents.write(buffer, 0, count);
+                    }
+                    result.add(contents.toByteArray());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Writes a JAR file which looks like a library: many moderately compressible resource entries
+     * in a directory tree, of the given total uncompressed size.
+     */
+    static void writeLibraryJar(File jarFile, String prefix, long totalBytes, int entryBytes, long seed) throws IOException {
+        Random random = new Random(seed);
+        byte[] data = new byte[entryBytes];
+        try (JarOutputStream output = new JarOutputStream(new BufferedOutputStream(new FileOutputStream(jarFile)))) {
+            for (int i = 0; (long) i * entryBytes < totalBytes; ++i) {
+                for (int j = 0; j < data.length; ++j) {
+                    // A small alphabet makes the data compress roughly as well as class files do.
+                    data[j] = (byte) ('a' + random.nextInt(random.nextInt(8) == 0 ? 26 : 4));
+                }
+                output.putNextEntry(new JarEntry(prefix + "/p" + (i % 64) + "/E" + i + ".dat"));
+                output.write(data);
+                output.closeEntry();
+            }
+        }
+    }
+}
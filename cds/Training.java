@@ -0,0 +1,55 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * This is a typical solution, which is compiled while creating the class data sharing archive of jvmch,
+ * so that the archive contains the classes javac needs for typical solutions.
+ */
+public class Training {
+    static class Edge implements Comparable<Edge> {
+        final int from, to;
+        final long weight;
+
+        Edge(int from, int to, long weight) {
+            this.from = from;
+            this.to = to;
+            this.weight = weight;
+        }
+
+        @Override
+        public int compareTo(Edge that) {
+            return Long.compare(weight, that.weight);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+        StringTokenizer st = new StringTokenizer(in.readLine());
+        int n = Integer.parseInt(st.nextToken());
+        int m = Integer.parseInt(st.nextToken());
+        List<Edge> edges = new ArrayList<>();
+        for (int i = 0; i < m; ++i) {
+            st = new StringTokenizer(in.readLine());
+            edges.add(new Edge(Integer.parseInt(st.nextToken()) - 1, Integer.parseInt(st.nextToken()) - 1,
+                    Long.parseLong(st.nextToken())));
+        }
+        Collections.sort(edges);
+        int[] parent = new int[n];
+        Arrays.setAll(parent, i -> i);
+        long total = 0;
+        for (Edge e : edges) {
+            int a = find(parent, e.from), b = find(parent, e.to);
+            if (a != b) {
+                parent[a] = b;
+                total += e.weight;
+            }
+        }
+        Map<String, Integer> counts = new TreeMap<>();
+        counts.merge("total", 1, Integer::sum);
+        System.out.printf("%d %s%n", total, counts);
+    }
+
+    private static int find(int[] parent, int x) {
+        return parent[x] == x ? x : (parent[x] = find(parent, parent[x]));
+    }
+}
@@ -0,0 +1,513 @@
+package jvmch;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This is the load generator, which replays a corpus of submissions through command chains of jvmch
+ * the way a contest system would, and reports the throughput and the latencies.
+ *
+ * Every Java source file found in the given files and directories is a submission, and the submissions
+ * are replayed in turns until the given number of requests is made. Each request runs the chain template
+ * with the placeholders replaced by the submission and by the files in a work directory of its own,
+ * either by starting a JVM with jvmch for it, or by sending it to a single {@code serve-requests} server.
+ *
+ * With an arrival rate given, the requests arrive at random with the given average rate, whether or not the earlier
+ * ones are done, and the latency of a request is counted from its arrival, so that the time spent waiting
+ * for a free worker is counted as well. Otherwise, the workers make the requests one after another as fast as they can.
+ * The time of each module of a chain is taken from the metrics jvmch writes. The latencies of the failed requests,
+ * including the ones which could not be made at all, are reported in a row of their own,
+ * and the times of their modules are not counted.
+ *
+ * @author Maxim Buzdalov
+ */
+public final class LoadGenerator {
+    private static final String MODE = "--mode";
+    private static final String LAUNCHER = "--launcher";
+    private static final String CHAIN = "--chain";
+    private static final String CONCURRENCY = "--concurrency";
+    private static final String RATE = "--rate";
+    private static final String REQUESTS = "--requests";
+    private static final String WARMUP = "--warmup";
+    private static final String WORK = "--work";
+    private static final String SEED = "--seed";
+
+    private static final String MODE_PROCESS = "process";
+    private static final String MODE_SERVER = "server";
+    private static final String DEFAULT_LAUNCHER = "java -jar jvmch.jar";
+    private static final String DEFAULT_CHAIN = "compile-java-files {temp} {jar} {source}"
+            + " --then annotate-jar-with-main-class-attribute {jar} {jar}";
+    private static final String REQUEST_ROW = "request";
+    private static final String FAILED_REQUEST_ROW = "failed request";
+
+    private static final int SERVER_START_TIMEOUT_MILLIS = 60000;
+    private static final Pattern LISTENING = Pattern.compile("^Listening at port ([0-9]+)$");
+    private static final Pattern MODULE_METRICS = Pattern.compile("^\\{\"module\":\"([^\"]*)\",\"success\":(true|false),\"millis\":([0-9.]+)");
+
+    private static class Options {
+        String mode = MODE_PROCESS;
+        List<String> launcher = split(DEFAULT_LAUNCHER);
+        String chain = DEFAULT_CHAIN;
+        int concurrency = 1;
+        double rate = 0;
+        int requests = 0;
+        int warmup = 0;
+        File workDir = null;
+        long seed = 239;
+        List<File> corpus = new ArrayList<>();
+
+        static Options parse(String[] args) {
+            Options rv = new Options();
+            for (int i = 0; i < args.length; ++i) {
+                String option = args[i];
+                if (!option.startsWith("--")) {
+                    rv.corpus.add(new File(option));
+                    continue;
+                }
+                if (++i == args.length) {
+                    return error(i, option + " requires a value");
+                }
+                String value = args[i];
+                try {
+                    switch (option) {
+                        case MODE:
+                            if (!value.equals(MODE_PROCESS) && !value.equals(MODE_SERVER)) {
+                                return error(i, MODE + " requires '" + MODE_PROCESS + "' or '" + MODE_SERVER + "'");
+                            }
+                            rv.mode = value;
+                            break;
+                        case LAUNCHER: rv.launcher = split(value); break;
+                        case CHAIN: rv.chain = value; break;
+                        case CONCURRENCY: rv.concurrency = Integer.parseInt(value); break;
+                        case RATE: rv.rate = Double.parseDouble(value); break;
+                        case REQUESTS: rv.requests = Integer.parseInt(value); break;
+                        case WARMUP: rv.warmup = Integer.parseInt(value); break;
+                        case WORK: rv.workDir = new File(value); break;
+                        case SEED: rv.seed = Long.parseLong(value); break;
+                        default: return error(i - 1, "unknown option '" + option + "'");
+                    }
+                } catch (NumberFormatException e) {
+                    return error(i, option + " requires a number");
+                }
+            }
+            if (rv.corpus.isEmpty()) {
+                System.err.println("Error: no files or directories with the submissions are given.");
+                return null;
+            }
+            if (rv.concurrency <= 0 || rv.rate < 0 || rv.requests < 0 || rv.warmup < 0 || rv.launcher.isEmpty()) {
+                System.err.println("Error: the concurrency must be positive, the launcher must not be empty,"
+                        + " and the numbers of requests and the rate must not be negative.");
+                return null;
+            }
+            return rv;
+        }
+
+        private static Options error(int index, String message) {
+            System.err.println("Error: at command line argument no. " + (index + 1) + ": " + message + ".");
+            return null;
+        }
+    }
+
+    private static void printUsage() {
+        System.err.println("Usage: " + LoadGenerator.class.getCanonicalName()
+                + " [" + MODE + " " + MODE_PROCESS + "|" + MODE_SERVER + "] [" + LAUNCHER + " <command>] [" + CHAIN + " <template>]");
+        System.err.println("        [" + CONCURRENCY + " <workers>] [" + RATE + " <requests per second>] [" + REQUESTS + " <count>]");
+        System.err.println("        [" + WARMUP + " <count>] [" + WORK + " <directory>] [" + SEED + " <seed>] <files and directories>+");
+        System.err.println("    where " + MODE + " " + MODE_PROCESS + " means to start a JVM for every request, which is the default,");
+        System.err.println("        and " + MODE + " " + MODE_SERVER + " means to send all requests to a single serve-requests server;");
+        System.err.println("    " + LAUNCHER + " is the command which runs jvmch, '" + DEFAULT_LAUNCHER + "' by default;");
+        System.err.println("    " + CHAIN + " is the command chain run for every request, where {source} is the submission,");
+        System.err.println("        {temp} and {jar} are a temporary directory and a JAR file in the work directory of the request,");
+        System.err.println("        and {work} is that work directory; it is '" + DEFAULT_CHAIN + "' by default;");
+        System.err.println("    " + CONCURRENCY + " is the number of requests run at once, 1 by default;");
+        System.err.println("    " + RATE + " is the average number of requests arriving per second, at random, and if it is not given,");
+        System.err.println("        every worker makes the next request as soon as it is done with the previous one;");
+        System.err.println("    " + REQUESTS + " is the number of requests, one per submission by default;");
+        System.err.println("    " + WARMUP + " is the number of requests made before the measured ones, 0 by default;");
+        System.err.println("    " + WORK + " is the directory for the work directories of the requests, a temporary one by default;");
+        System.err.println("    " + SEED + " is the seed of the random arrival times;");
+        System.err.println("    and the Java source files in the files and directories given are the submissions.");
+    }
+
+    private static List<String> split(String command) {
+        List<String> rv = new ArrayList<>();
+        for (String part : command.trim().split("\\s+")) {
+            if (!part.isEmpty()) {
+                rv.add(part);
+            }
+        }
+        return rv;
+    }
+
+    private static void findSources(File file, List<File> result) {
+        if (file.isDirectory()) {
+            File[] files = file.listFiles();
+            if (files != null) {
+                Arrays.sort(files);
+                for (File f : files) {
+                    findSources(f, result);
+                }
+            }
+        } else if (file.getName().endsWith(".java")) {
+            result.add(file.getAbsoluteFile());
+        }
+    }
+
+    /**
+     * This is what runs a single request, which is a command chain without the launcher, and returns its exit code.
+     */
+    private interface Runner extends AutoCloseable {
+        int run(List<String> request) throws IOException;
+
+        @Override
+        void close() throws IOException;
+    }
+
+    /**
+     * This is the runner which starts a JVM for every request.
+     */
+    private static class ProcessRunner implements Runner {
+        private final List<String> launcher;
+
+        ProcessRunner(List<String> launcher) {
+            this.launcher = launcher;
+        }
+
+        @Override
+        public int run(List<String> request) throws IOException {
+            List<String> command = new ArrayList<>(launcher);
+            command.addAll(request);
+            Process process = new ProcessBuilder(command)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .redirectError(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+            try {
+                return process.waitFor();
+            } catch (InterruptedException e) {
+                process.destroyForcibly();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for jvmch");
+            }
+        }
+
+        @Override
+        public void close() {}
+    }
+
+    /**
+     * This is the runner which sends all the requests to a single server, through a connection per worker.
+     */
+    private static class ServerRunner implements Runner {
+        private final Process server;
+        private final int port;
+        private final List<Socket> sockets = Collections.synchronizedList(new ArrayList<>());
+        private final ThreadLocal<Connection> connections = new ThreadLocal<>();
+
+        private static class Connection {
+            final BufferedReader reader;
+            final PrintStream writer;
+
+            Connection(Socket socket) throws IOException {
+                reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                writer = new PrintStream(socket.getOutputStream(), true, "UTF-8");
+            }
+        }
+
+        ServerRunner(List<String> launcher) throws IOException {
+            List<String> command = new ArrayList<>(launcher);
+            command.addAll(Arrays.asList("serve-requests", "--port", "0"));
+            server = new ProcessBuilder(command)
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+            // The server picks a free port itself and tells which one, so nothing can take the port in between.
+            // Whatever it prints after that is read and dropped, so that it never blocks on a full pipe.
+            CompletableFuture<Integer> listening = new CompletableFuture<>();
+            Thread reader = new Thread(() -> {
+                try (BufferedReader output = new BufferedReader(new InputStreamReader(server.getInputStream(), StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = output.readLine()) != null) {
+                        Matcher matcher = LISTENING.matcher(line);
+                        if (matcher.matches()) {
+                            listening.complete(Integer.parseInt(matcher.group(1)));
+                        }
+                    }
+                } catch (IOException e) {
+                    listening.completeExceptionally(e);
+                }
+                listening.completeExceptionally(new EOFException("The server has exited"));
+            }, "jvmch server output");
+            reader.setDaemon(true);
+            reader.start();
+            try {
+                port = listening.get(SERVER_START_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                server.destroyForcibly();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the server");
+            } catch (ExecutionException | TimeoutException e) {
+                server.destroyForcibly();
+                throw new IOException("The server has not started listening", e instanceof ExecutionException ? e.getCause() : e);
+            }
+        }
+
+        @Override
+        public int run(List<String> request) throws IOException {
+            Connection connection = connections.get();
+            if (connection == null) {
+                Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+                sockets.add(socket);
+                connection = new Connection(socket);
+                connections.set(connection);
+            }
+            try {
+                connection.writer.println(String.join(" ", request));
+                String line;
+                while ((line = connection.reader.readLine()) != null) {
+                    if (line.startsWith("exit ")) {
+                        return Integer.parseInt(line.substring("exit ".length()));
+                    }
+                }
+                throw new EOFException("The server has closed the connection");
+            } catch (IOException e) {
+                // The connection is in an unknown state, so the next request of this worker makes a new one.
+                connections.remove();
+                throw e;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            synchronized (sockets) {
+                for (Socket socket : sockets) {
+                    socket.close();
+                }
+            }
+            server.destroy();
+        }
+    }
+
+    /**
+     * This is what is measured of a single request.
+     */
+    private static class Result {
+        /** The exit code of a request which could not be made, as the server or the process could not be reached. */
+        static final int NOT_MADE = -1;
+
+        final long latencyNanos;
+        final int exitCode;
+        final Map<String, Double> moduleMillis;
+
+        Result(long latencyNanos, int exitCode, Map<String, Double> moduleMillis) {
+            this.latencyNanos = latencyNanos;
+            this.exitCode = exitCode;
+            this.moduleMillis = moduleMillis;
+        }
+    }
+
+    private final Options options;
+    private final List<File> sources;
+    private final File workRoot;
+    private final Runner runner;
+
+    private LoadGenerator(Options options, List<File> sources, File workRoot, Runner runner) {
+        this.options = options;
+        this.sources = sources;
+        this.workRoot = workRoot;
+        this.runner = runner;
+    }
+
+    private Result runRequest(int index, long arrivalNanos) {
+        try {
+            return makeRequest(index, arrivalNanos);
+        } catch (IOException e) {
+            // One broken request must not stop the run, so it is reported as a failed one.
+            System.err.println("Error: request no. " + index + " could not be made: " + e);
+            return new Result(System.nanoTime() - arrivalNanos, Result.NOT_MADE, Collections.emptyMap());
+        }
+    }
+
+    private Result makeRequest(int index, long arrivalNanos) throws IOException {
+        File work = new File(workRoot, "request" + index);
+        if (!work.mkdirs()) {
+            throw new IOException("Cannot create the directory " + work);
+        }
+        try {
+            File metrics = new File(work, "metrics.json");
+            List<String> request = new ArrayList<>(Arrays.asList("--metrics", metrics.getPath()));
+            for (String part : split(options.chain)) {
+                request.add(part
+                        .replace("{source}", sources.get(index % sources.size()).getPath())
+                        .replace("{temp}", new File(work, "temp").getPath())
+                        .replace("{jar}", new File(work, "result.jar").getPath())
+                        .replace("{work}", work.getPath()));
+            }
+            int exitCode = runner.run(request);
+            long latencyNanos = System.nanoTime() - arrivalNanos;
+            Map<String, Double> moduleMillis = new LinkedHashMap<>();
+            if (metrics.isFile()) {
+                for (String line : Files.readAllLines(metrics.toPath(), StandardCharsets.UTF_8)) {
+                    Matcher matcher = MODULE_METRICS.matcher(line);
+                    if (matcher.find()) {
+                        moduleMillis.merge(matcher.group(1), Double.parseDouble(matcher.group(3)), Double::sum);
+                    }
+                }
+            }
+            return new Result(latencyNanos, exitCode, moduleMillis);
+        } finally {
+            delete(work);
+        }
+    }
+
+    /**
+     * Makes the given number of requests, starting with the given index, and returns their results.
+     * The time it has taken, in nanoseconds, is stored as the only element of the given array.
+     */
+    private List<Result> runRequests(int first, int count, Random random, long[] elapsedNanos)
+            throws InterruptedException, ExecutionException {
+        ExecutorService executor = Executors.newFixedThreadPool(options.concurrency);
+        try {
+            List<Future<Result>> futures = new ArrayList<>(count);
+            long startNanos = System.nanoTime();
+            long arrivalNanos = startNanos;
+            for (int i = 0; i < count; ++i) {
+                int index = first + i;
+                if (options.rate > 0) {
+                    // The arrivals are a Poisson process, which makes for bursts as well as for quiet periods.
+                    arrivalNanos += (long) (-Math.log(1 - random.nextDouble()) / options.rate * 1e9);
+                    long sleepNanos = arrivalNanos - System.nanoTime();
+                    if (sleepNanos > 0) {
+                        TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                    }
+                    long arrival = arrivalNanos;
+                    futures.add(executor.submit(() -> runRequest(index, arrival)));
+                } else {
+                    futures.add(executor.submit(() -> runRequest(index, System.nanoTime())));
+                }
+            }
+            List<Result> results = new ArrayList<>(count);
+            for (Future<Result> future : futures) {
+                results.add(future.get());
+            }
+            elapsedNanos[0] = System.nanoTime() - startNanos;
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void printRow(String name, List<Double> millis) {
+        Collections.sort(millis);
+        System.out.println(String.format(Locale.ROOT, "%-40s %8d %10.1f %10.1f %10.1f %10.1f", name, millis.size(),
+                percentile(millis, 50), percentile(millis, 95), percentile(millis, 99), millis.get(millis.size() - 1)));
+    }
+
+    private static double percentile(List<Double> sorted, int percent) {
+        int rank = (int) Math.ceil(percent / 100.0 * sorted.size());
+        return sorted.get(Math.max(rank, 1) - 1);
+    }
+
+    private void report(List<Result> results, long elapsedNanos) {
+        Map<String, List<Double>> rows = new LinkedHashMap<>();
+        Map<Integer, Integer> exitCodes = new TreeMap<>();
+        rows.put(REQUEST_ROW, new ArrayList<>());
+        rows.put(FAILED_REQUEST_ROW, new ArrayList<>());
+        for (Result result : results) {
+            if (result.exitCode != 0) {
+                // A failed request may well have stopped early, which would make the latencies look better.
+                rows.get(FAILED_REQUEST_ROW).add(result.latencyNanos / 1e6);
+                exitCodes.merge(result.exitCode, 1, Integer::sum);
+                continue;
+            }
+            rows.get(REQUEST_ROW).add(result.latencyNanos / 1e6);
+            for (Map.Entry<String, Double> entry : result.moduleMillis.entrySet()) {
+                rows.computeIfAbsent(entry.getKey(), k -> new ArrayList<>()).add(entry.getValue());
+            }
+        }
+        double seconds = elapsedNanos / 1e9;
+        System.out.println(String.format(Locale.ROOT, "Mode: %s, concurrency %d, %s, %d requests over %d submissions",
+                options.mode, options.concurrency,
+                options.rate > 0 ? String.format(Locale.ROOT, "%.2f requests per second arriving", options.rate) : "closed loop",
+                results.size(), sources.size()));
+        System.out.println(String.format(Locale.ROOT, "Throughput: %.2f requests per second, %d requests in %.2f seconds",
+                results.size() / seconds, results.size(), seconds));
+        if (exitCodes.isEmpty()) {
+            System.out.println("Failed: none");
+        } else {
+            StringBuilder failed = new StringBuilder();
+            for (Map.Entry<Integer, Integer> entry : exitCodes.entrySet()) {
+                failed.append(failed.length() == 0 ? "" : ", ").append(entry.getValue());
+                if (entry.getKey() == Result.NOT_MADE) {
+                    failed.append(" not made at all");
+                } else {
+                    failed.append(" with exit code ").append(entry.getKey());
+                }
+            }
+            System.out.println("Failed: " + failed);
+        }
+        System.out.println(String.format(Locale.ROOT, "%-40s %8s %10s %10s %10s %10s",
+                "Latency, milliseconds", "count", "p50", "p95", "p99", "max"));
+        for (Map.Entry<String, List<Double>> row : rows.entrySet()) {
+            if (!row.getValue().isEmpty()) {
+                printRow(row.getKey(), row.getValue());
+            }
+        }
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                delete(f);
+            }
+        }
+        file.delete();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = args.length == 0 ? null : Options.parse(args);
+        if (options == null) {
+            printUsage();
+            System.exit(1);
+            return;
+        }
+        List<File> sources = new ArrayList<>();
+        for (File file : options.corpus) {
+            findSources(file, sources);
+        }
+        if (sources.isEmpty()) {
+            System.err.println("Error: no Java source files are found in the corpus.");
+            System.exit(1);
+            return;
+        }
+        int requests = options.requests == 0 ? sources.size() : options.requests;
+        File workRoot = options.workDir != null
+                ? options.workDir.getAbsoluteFile()
+                : Files.createTempDirectory("jvmch-load").toFile();
+        if (!workRoot.mkdirs() && !workRoot.isDirectory()) {
+            System.err.println("Error: cannot create the directory " + workRoot + ".");
+            System.exit(1);
+            return;
+        }
+        try (Runner runner = options.mode.equals(MODE_SERVER) ? new ServerRunner(options.launcher) : new ProcessRunner(options.launcher)) {
+            LoadGenerator generator = new LoadGenerator(options, sources, workRoot, runner);
+            Random random = new Random(options.seed);
+            long[] elapsedNanos = new long[1];
+            if (options.warmup > 0) {
+                generator.runRequests(0, options.warmup, random, elapsedNanos);
+            }
+            List<Result> results = generator.runRequests(options.warmup, requests, random, elapsedNanos);
+            generator.report(results, elapsedNanos[0]);
+        } finally {
+            if (options.workDir == null) {
+                delete(workRoot);
+            }
+        }
+    }
+}
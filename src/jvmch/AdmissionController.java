@@ -0,0 +1,211 @@
+package jvmch;
+
+import java.util.ArrayDeque;
+
+/**
+ * This is what limits the number of compilations running at once in a single JVM by the heap they are expected to use,
+ * so that one huge compilation does not make all the others crawl under garbage collection.
+ *
+ * Each compilation reserves its estimated heap use before it starts, and waits while the reservations
+ * of the running compilations would exceed the budget. The compilations are admitted in the order they arrive,
+ * and one is always admitted when nothing else is running, however large its estimate is.
+ * If the given number of compilations is already waiting, a new one is rejected instead.
+ *
+ * The estimate is proportional to the total size of the sources. The ratio is learned from the bytes
+ * allocated by the compilations which have finished, as measured by the thread allocation counters.
+ * Allocation overestimates the heap a compilation retains, which makes the estimate a conservative one.
+ *
+ * A part of the compilations, such as a batch, may have limits of its own, which is done by a controller
+ * made by {@link #limited(long, int)}. Such a controller admits a compilation by its own limits first,
+ * and then by the ones of the controller it is made from, so the compilations outside the part are not affected.
+ *
+ * @author Maxim Buzdalov
+ */
+final class AdmissionController {
+    /** The controller shared by all compilations in this JVM. */
+    static final AdmissionController SHARED = new AdmissionController(Runtime.getRuntime().maxMemory() / 4 * 3, Integer.MAX_VALUE);
+
+    private static final long MIN_ESTIMATE = 16L << 20;
+    private static final double INITIAL_BYTES_PER_SOURCE_BYTE = 2000;
+    private static final double LEARNING_RATE = 0.2;
+
+    private final AdmissionController parent;
+    private final long budget;
+    private final int maxQueued;
+    private long reserved = 0;
+    private int running = 0;
+    private final ArrayDeque<Object> waiting = new ArrayDeque<>();
+    private int maxQueueDepth = 0;
+    private long rejections = 0;
+    private double bytesPerSourceByte = INITIAL_BYTES_PER_SOURCE_BYTE;
+
+    AdmissionController(long budget, int maxQueued) {
+        this(null, budget, maxQueued, INITIAL_BYTES_PER_SOURCE_BYTE);
+    }
+
+    private AdmissionController(AdmissionController parent, long budget, int maxQueued, double bytesPerSourceByte) {
+        this.parent = parent;
+        this.budget = budget;
+        this.maxQueued = maxQueued;
+        this.bytesPerSourceByte = bytesPerSourceByte;
+    }
+
+    /**
+     * Returns a controller with the given heap budget in bytes and the given largest number of compilations
+     * which may wait to be admitted, which admits the compilations by this controller as well.
+     * It starts with the estimates this controller has learned so far, and with no rejections and no waiting counted.
+     */
+    synchronized AdmissionController limited(long budget, int maxQueued) {
+        return new AdmissionController(this, budget, maxQueued, bytesPerSourceByte);
+    }
+
+    long getBudget() {
+        return budget;
+    }
+
+    int getMaxQueued() {
+        return maxQueued;
+    }
+
+    /**
+     * Waits until a compilation of sources of the given total size can be admitted, and reserves its estimated heap use.
+     * Returns {@code null} if the compilation is rejected because too many compilations are waiting already.
+     * The returned ticket must be released when the compilation is over.
+     */
+    Ticket admit(long sourceBytes) throws InterruptedException {
+        Ticket ticket = admitHere(sourceBytes);
+        if (ticket == null || parent == null) {
+            return ticket;
+        }
+        boolean admitted = false;
+        try {
+            ticket.parentTicket = parent.admit(sourceBytes);
+            admitted = ticket.parentTicket != null;
+        } finally {
+            if (!admitted) {
+                ticket.release(-1);
+            }
+        }
+        if (!admitted) {
+            synchronized (this) {
+                ++rejections;
+            }
+            return null;
+        }
+        return ticket;
+    }
+
+    private Ticket admitHere(long sourceBytes) throws InterruptedException {
+        Events.CompilationAdmission event = new Events.CompilationAdmission();
+        event.begin();
+        Ticket ticket = null;
+        int queueDepth;
+        long estimate;
+        synchronized (this) {
+            queueDepth = getQueueDepth();
+            estimate = Math.min(budget, Math.max(MIN_ESTIMATE, (long) (bytesPerSourceByte * sourceBytes)));
+            if (queueDepth >= maxQueued) {
+                ++rejections;
+            } else {
+                Object place = new Object();
+                waiting.addLast(place);
+                try {
+                    while (waiting.peekFirst() != place || running > 0 && reserved + estimate > budget) {
+                        maxQueueDepth = Math.max(maxQueueDepth, waiting.size());
+                        wait();
+                    }
+                } finally {
+                    // Whether admitted or interrupted, this one does not hold up the ones behind it anymore.
+                    waiting.remove(place);
+                    notifyAll();
+                }
+                ++running;
+                reserved += estimate;
+                ticket = new Ticket(estimate, sourceBytes);
+            }
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.sourceBytes = sourceBytes;
+            event.estimatedBytes = estimate;
+            event.queueDepth = queueDepth;
+            event.admitted = ticket != null;
+            event.commit();
+        }
+        return ticket;
+    }
+
+    /**
+     * Returns the number of compilations waiting to be admitted.
+     */
+    synchronized int getQueueDepth() {
+        return waiting.size();
+    }
+
+    /**
+     * Returns the largest number of compilations which have been waiting to be admitted at once.
+     */
+    synchronized int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    /**
+     * Returns the number of compilations rejected so far.
+     */
+    synchronized long getRejections() {
+        return rejections;
+    }
+
+    /**
+     * Returns the heap, in bytes, reserved by the running compilations.
+     */
+    synchronized long getReservedBytes() {
+        return reserved;
+    }
+
+    private synchronized void release(Ticket ticket, long allocated) {
+        --running;
+        reserved -= ticket.estimate;
+        if (allocated >= 0 && ticket.sourceBytes > 0) {
+            bytesPerSourceByte += LEARNING_RATE * ((double) allocated / ticket.sourceBytes - bytesPerSourceByte);
+        }
+        notifyAll();
+    }
+
+    /**
+     * This is the admission of a single compilation, which ends when it is released.
+     */
+    final class Ticket {
+        private final long estimate;
+        private final long sourceBytes;
+        private Ticket parentTicket = null;
+        private boolean released = false;
+
+        private Ticket(long estimate, long sourceBytes) {
+            this.estimate = estimate;
+            this.sourceBytes = sourceBytes;
+        }
+
+        /**
+         * Returns the heap use, in bytes, which is reserved for the compilation.
+         */
+        long getEstimate() {
+            return estimate;
+        }
+
+        /**
+         * Ends the compilation, which has allocated the given number of bytes, as measured by the caller
+         * on all the threads which have run it. If this number is negative, as it is when it cannot be measured,
+         * nothing is learned from the compilation.
+         */
+        synchronized void release(long allocatedBytes) {
+            if (!released) {
+                released = true;
+                AdmissionController.this.release(this, allocatedBytes);
+                if (parentTicket != null) {
+                    parentTicket.release(allocatedBytes);
+                }
+            }
+        }
+    }
+}
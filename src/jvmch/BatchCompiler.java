@@ -0,0 +1,287 @@
+package jvmch;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * This is the module for compiling many independent submissions in a single JVM.
+ *
+ * The manifest file lists one job per line. Each job is given by the arguments of the
+ * {@code compile-java-files} command without the temporary directory, that is,
+ * the resulting JAR file name followed by the options and the source files.
+ * Empty lines and lines starting with {@code '#'} are ignored.
+ *
+ * The jobs are run in parallel, each with its own temporary directory and its own captured output.
+ * The report contains one JSON object per line for every job, in the order of the manifest, which tells
+ * whether the job has succeeded, whether it has been cancelled by its {@code --deadline}, how long it has taken,
+ * and what it has printed.
+ *
+ * @author Maxim Buzdalov
+ */
+public class BatchCompiler extends Module {
+    private static final String THREADS = "--threads";
+    private static final String TEMP_ROOT = "--temp-root";
+    private static final String ANNOTATE = "--annotate";
+    private static final String USE_FIRST = "--use-first";
+    private static final String HEAP_BUDGET = "--heap-budget";
+    private static final String MAX_QUEUED = "--max-queued";
+
+    private final JavaCompiler compiler = new JavaCompiler();
+    private final MainClassJarAnnotator annotator = new MainClassJarAnnotator();
+
+    @Override
+    public boolean checkArgs(String[] args, int argumentOffset, PrintStream err) {
+        if (args.length < 2) {
+            err.println("Error: expected the arguments for the command at index "
+                    + (argumentOffset + 1) + " to start with <manifest-file> <report-file>.");
+            return false;
+        }
+        for (int i = 2; i < args.length; ++i) {
+            switch (args[i]) {
+                case ANNOTATE:
+                case USE_FIRST:
+                    break;
+                case THREADS:
+                    if (++i == args.length || parseThreads(args[i]) <= 0) {
+                        err.println("Error: at command line argument no. " + (argumentOffset + i + 1)
+                                + ": " + THREADS + " requires a positive number.");
+                        return false;
+                    }
+                    break;
+                case TEMP_ROOT:
+                    if (++i == args.length) {
+                        err.println("Error: at command line argument no. " + (argumentOffset + i + 1)
+                                + ": " + TEMP_ROOT + " requires a directory.");
+                        return false;
+                    }
+                    break;
+                case HEAP_BUDGET:
+                    if (++i == args.length || parseMegabytes(args[i]) <= 0) {
+                        err.println("Error: at command line argument no. " + (argumentOffset + i + 1)
+                                + ": " + HEAP_BUDGET + " requires a positive number of megabytes.");
+                        return false;
+                    }
+                    break;
+                case MAX_QUEUED:
+                    if (++i == args.length || parseThreads(args[i]) <= 0) {
+                        err.println("Error: at command line argument no. " + (argumentOffset + i + 1)
+                                + ": " + MAX_QUEUED + " requires a positive number.");
+                        return false;
+                    }
+                    break;
+                default:
+                    err.println("Error: at command line argument no. " + (argumentOffset + i + 1)
+                            + ": unknown option '" + args[i] + "'.");
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String getUsage() {
+        return "compiles many independent jobs listed in a manifest file in parallel.\n"
+                + "            The arguments are: <manifest-file> <report-file> [" + THREADS + " <count>] [" + TEMP_ROOT + " <directory>]\n"
+                + "                [" + ANNOTATE + " [" + USE_FIRST + "]] [" + HEAP_BUDGET + " <megabytes>] [" + MAX_QUEUED + " <count>], where:\n"
+                + "                <manifest-file> lists jobs, one per line, as arguments to compile-java-files\n"
+                + "                    without the temporary directory: <resulting jar file> [options] <source files>;\n"
+                + "                <report-file> receives the results of the jobs, one JSON object per line,\n"
+                + "                    telling whether each job has succeeded and whether it has been cancelled by its deadline;\n"
+                + "                " + THREADS + " sets the number of jobs run at once, the number of processors by default;\n"
+                + "                " + TEMP_ROOT + " sets where the temporary directories of the jobs are created,\n"
+                + "                    such as a tmpfs; they are reused and cleaned up in the background;\n"
+                + "                " + ANNOTATE + " means to annotate each resulting JAR file with the Main-Class attribute;\n"
+                + "                " + USE_FIRST + " means to use the first main class when multiple ones are found;\n"
+                + "                " + HEAP_BUDGET + " sets how much heap the compilations running at once may be expected to use,\n"
+                + "                    three quarters of the maximum heap by default;\n"
+                + "                " + MAX_QUEUED + " sets how many compilations may wait for the heap budget,\n"
+                + "                    the others are rejected; there is no limit by default.\n"
+                + "            If either of the last two is given, they apply to the compilations of this batch only,\n"
+                + "            which are admitted by the limits of the whole JVM as well, and the number of rejected compilations\n"
+                + "            and the largest number of waiting ones in this batch are printed when the batch is done.";
+    }
+
+    private static int parseThreads(String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Parses the given number of megabytes, returning the number of bytes, or -1 if it is not a valid number.
+     */
+    private static long parseMegabytes(String value) {
+        try {
+            long megabytes = Long.parseLong(value);
+            return megabytes < 0 || megabytes > Long.MAX_VALUE >> 20 ? -1 : megabytes << 20;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static class Job {
+        final int line;
+        final String[] args;
+
+        Job(int line, String[] args) {
+            this.line = line;
+            this.args = args;
+        }
+    }
+
+    private static class JobResult {
+        final boolean success;
+        final boolean cancelled;
+        final long millis;
+        final String output;
+
+        JobResult(boolean success, boolean cancelled, long millis, String output) {
+            this.success = success;
+            this.cancelled = cancelled;
+            this.millis = millis;
+            this.output = output;
+        }
+    }
+
+    @Override
+    public boolean run(String[] args, Context context) {
+        PrintStream err = context.getErr();
+        File manifest = new File(args[0]);
+        File report = new File(args[1]);
+        int threads = Runtime.getRuntime().availableProcessors();
+        File tempRoot = null;
+        boolean annotate = false;
+        boolean useFirst = false;
+        long heapBudget = -1;
+        int maxQueued = -1;
+        for (int i = 2; i < args.length; ++i) {
+            switch (args[i]) {
+                case ANNOTATE: annotate = true; break;
+                case USE_FIRST: useFirst = true; break;
+                case THREADS: threads = parseThreads(args[++i]); break;
+                case TEMP_ROOT: tempRoot = new File(args[++i]); break;
+                case HEAP_BUDGET: heapBudget = parseMegabytes(args[++i]); break;
+                case MAX_QUEUED: maxQueued = parseThreads(args[++i]); break;
+            }
+        }
+        AdmissionController shared = context.getAdmission();
+        AdmissionController admission = heapBudget > 0 || maxQueued > 0
+                ? shared.limited(heapBudget > 0 ? heapBudget : shared.getBudget(),
+                                 maxQueued > 0 ? maxQueued : shared.getMaxQueued())
+                : shared;
+
+        List<Job> jobs = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(manifest), StandardCharsets.UTF_8))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                ++lineNumber;
+                String trimmed = line.trim();
+                if (!trimmed.isEmpty() && !trimmed.startsWith("#")) {
+                    jobs.add(new Job(lineNumber, trimmed.split("\\s+")));
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace(err);
+            return false;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try (PrintStream reportStream = new PrintStream(new FileOutputStream(report), false, "UTF-8")) {
+            List<Future<JobResult>> results = new ArrayList<>(jobs.size());
+            for (Job job : jobs) {
+                boolean finalAnnotate = annotate;
+                boolean finalUseFirst = useFirst;
+                File finalTempRoot = tempRoot;
+                results.add(executor.submit(() -> runJob(job, finalTempRoot, finalAnnotate, finalUseFirst,
+                                                         admission, context.getMetrics())));
+            }
+            for (int i = 0; i < jobs.size(); ++i) {
+                Job job = jobs.get(i);
+                JobResult result;
+                try {
+                    result = results.get(i).get();
+                } catch (ExecutionException e) {
+                    // One broken job must not affect the others, even if it has run out of memory or stack.
+                    StringWriter trace = new StringWriter();
+                    e.getCause().printStackTrace(new PrintWriter(trace));
+                    result = new JobResult(false, false, 0, trace.toString());
+                }
+                reportStream.println("{\"line\":" + job.line
+                        + ",\"jar\":" + Json.quote(job.args[0])
+                        + ",\"success\":" + result.success
+                        + ",\"cancelled\":" + result.cancelled
+                        + ",\"millis\":" + result.millis
+                        + ",\"output\":" + Json.quote(result.output) + "}");
+            }
+            if (heapBudget > 0 || maxQueued > 0) {
+                context.getOut().println("Admission control: " + admission.getRejections() + " rejected, at most "
+                        + admission.getMaxQueueDepth() + " waiting at once");
+            }
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace(err);
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            e.printStackTrace(err);
+            return false;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @SuppressWarnings("try")
+    private JobResult runJob(Job job, File tempRoot, boolean annotate, boolean useFirst,
+                             AdmissionController admission, Metrics metrics) {
+        try (Metrics.Phase phase = metrics.phase("job " + job.line)) {
+            return runJob(job, tempRoot, annotate, useFirst, admission);
+        }
+    }
+
+    private JobResult runJob(Job job, File tempRoot, boolean annotate, boolean useFirst,
+                             AdmissionController admission) {
+        long startTime = System.nanoTime();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        boolean success;
+        boolean cancelled = false;
+        File tempDir = null;
+        Context compileContext = null;
+        try (PrintStream output = new PrintStream(buffer, true, "UTF-8")) {
+            tempDir = WorkDirectories.create(tempRoot);
+            String[] compileArgs = new String[job.args.length + 1];
+            compileArgs[0] = tempDir.getPath();
+            System.arraycopy(job.args, 0, compileArgs, 1, job.args.length);
+            compileContext = new Context(output, output).withAdmission(admission);
+            success = compiler.checkArgs(compileArgs, 0, output) && compiler.run(compileArgs, compileContext);
+            cancelled = compileContext.isDeadlineExceeded();
+            if (success && annotate) {
+                String[] annotateArgs = useFirst
+                        ? new String[] { job.args[0], job.args[0], USE_FIRST }
+                        : new String[] { job.args[0], job.args[0] };
+                success = annotator.run(annotateArgs, new Context(output, output));
+            }
+        } catch (IOException | RuntimeException e) {
+            // One broken job must not affect the others, even if it cannot get a temporary directory.
+            success = false;
+            e.printStackTrace(new PrintStream(buffer, true));
+        } finally {
+            if (tempDir != null) {
+                File finalTempDir = tempDir;
+                if (compileContext == null) {
+                    WorkDirectories.discard(finalTempDir);
+                } else {
+                    // A cancelled compilation may leave javac writing into the directory for a while.
+                    compileContext.whenAbandonedJavacFinished(() -> WorkDirectories.discard(finalTempDir));
+                }
+            }
+        }
+        long millis = (System.nanoTime() - startTime) / 1000000;
+        return new JobResult(success, cancelled, millis, new String(buffer.toByteArray(), StandardCharsets.UTF_8));
+    }
+}
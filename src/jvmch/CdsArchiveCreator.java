@@ -0,0 +1,193 @@
+package jvmch;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * This is the module which creates a class data sharing (AppCDS) archive for a JAR file with a main class,
+ * so that the JVM which runs the solution starts faster.
+ *
+ * The archive is created by a training run of the JAR file with the given input,
+ * using {@code -XX:ArchiveClassesAtExit}, which is available since Java 13. It can then be used as
+ * {@code java -XX:SharedArchiveFile=<archive> -jar <jar>}, which must use the same Java runtime,
+ * the same JAR file path and compatible JVM options, otherwise the archive is silently ignored.
+ * The JAR file must not change after the archive is created.
+ *
+ * The training run may read and write any files, so the module does not tell which files it uses,
+ * and chains wait for it to finish before running the commands after it.
+ *
+ * @author Maxim Buzdalov
+ */
+public class CdsArchiveCreator extends Module {
+    private static final String ARCHIVE = "--archive";
+    private static final String INPUT = "--input";
+    private static final String JAVA = "--java";
+    private static final String JVM_OPTION = "--jvm-option";
+    private static final String TIMEOUT = "--timeout";
+
+    private static final long DEFAULT_TIMEOUT_SECONDS = 10;
+
+    private static class Options {
+        File jarFile;
+        File archiveFile;
+        File inputFile = null;
+        String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+        List<String> jvmOptions = new ArrayList<>();
+        long timeoutSeconds = DEFAULT_TIMEOUT_SECONDS;
+
+        static Options parse(String[] args, int argumentOffset, PrintStream err) {
+            if (args.length < 1) {
+                err.println("Error: expected the arguments for the command at index "
+                        + (argumentOffset + 1) + " to start with the JAR file name.");
+                return null;
+            }
+            Options rv = new Options();
+            rv.jarFile = new File(args[0]);
+            for (int i = 1; i < args.length; ++i) {
+                String option = args[i];
+                if (!option.equals(ARCHIVE) && !option.equals(INPUT) && !option.equals(JAVA)
+                        && !option.equals(JVM_OPTION) && !option.equals(TIMEOUT)) {
+                    return error(err, argumentOffset + i + 1, "unknown option '" + option + "'");
+                }
+                if (++i == args.length) {
+                    return error(err, argumentOffset + i + 1, option + " requires a value");
+                }
+                switch (option) {
+                    case ARCHIVE:
+                        rv.archiveFile = new File(args[i]);
+                        break;
+                    case INPUT:
+                        rv.inputFile = new File(args[i]);
+                        break;
+                    case JAVA:
+                        rv.java = args[i];
+                        break;
+                    case JVM_OPTION:
+                        rv.jvmOptions.add(args[i]);
+                        break;
+                    case TIMEOUT:
+                        try {
+                            rv.timeoutSeconds = Long.parseLong(args[i]);
+                        } catch (NumberFormatException e) {
+                            rv.timeoutSeconds = -1;
+                        }
+                        if (rv.timeoutSeconds <= 0) {
+                            return error(err, argumentOffset + i + 1, TIMEOUT + " requires a positive number of seconds");
+                        }
+                        break;
+                }
+            }
+            if (rv.archiveFile == null) {
+                rv.archiveFile = getDefaultArchiveFile(rv.jarFile);
+            }
+            return rv;
+        }
+
+        private static Options error(PrintStream err, int index, String message) {
+            err.println("Error: at command line argument no. " + index + ": " + message + ".");
+            return null;
+        }
+    }
+
+    static File getDefaultArchiveFile(File jarFile) {
+        String name = jarFile.getName();
+        if (name.toLowerCase().endsWith(".jar")) {
+            name = name.substring(0, name.length() - 4);
+        }
+        return new File(jarFile.getAbsoluteFile().getParentFile(), name + ".jsa");
+    }
+
+    @Override
+    public boolean checkArgs(String[] args, int argumentOffset, PrintStream err) {
+        return Options.parse(args, argumentOffset, err) != null;
+    }
+
+    @Override
+    public boolean run(String[] args, Context context) {
+        PrintStream err = context.getErr();
+        Options options = Options.parse(args, 0, err);
+        if (options == null) {
+            return false;
+        }
+        try {
+            if (!hasMainClass(options.jarFile)) {
+                err.println("Error: " + options.jarFile + " has no Main-Class attribute, "
+                        + "please annotate it with annotate-jar-with-main-class-attribute first.");
+                return false;
+            }
+            // A stale archive would be worse than none, so we get rid of it whatever happens.
+            if (options.archiveFile.exists() && !options.archiveFile.delete()) {
+                err.println("Error: cannot delete the existing archive " + options.archiveFile + ".");
+                return false;
+            }
+
+            List<String> command = new ArrayList<>();
+            command.add(options.java);
+            command.addAll(options.jvmOptions);
+            command.add("-XX:ArchiveClassesAtExit=" + options.archiveFile.getAbsolutePath());
+            command.add("-jar");
+            command.add(options.jarFile.getPath());
+            ProcessBuilder builder = new ProcessBuilder(command)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .redirectError(ProcessBuilder.Redirect.DISCARD);
+            if (options.inputFile != null) {
+                builder.redirectInput(options.inputFile);
+            }
+            Process process = builder.start();
+            if (options.inputFile == null) {
+                process.getOutputStream().close();
+            }
+            if (!process.waitFor(options.timeoutSeconds, TimeUnit.SECONDS)) {
+                process.destroyForcibly().waitFor();
+                options.archiveFile.delete();
+                err.println("Error: the training run of " + options.jarFile + " did not finish in "
+                        + options.timeoutSeconds + " seconds.");
+                return false;
+            }
+            // The archive is written whatever the exit code is, and a solution may well exit with a non-zero one.
+            if (!options.archiveFile.isFile()) {
+                err.println("Error: the training run of " + options.jarFile + " exited with code "
+                        + process.exitValue() + ", but the archive has not been created. "
+                        + "Please make sure that " + options.java + " supports -XX:ArchiveClassesAtExit.");
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace(err);
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            e.printStackTrace(err);
+            return false;
+        }
+    }
+
+    private static boolean hasMainClass(File jarFile) throws IOException {
+        // The training run reads the JAR file from disk anyway, so there is no point in asking the context.
+        try (JarFile jar = new JarFile(jarFile)) {
+            Manifest manifest = jar.getManifest();
+            return manifest != null && manifest.getMainAttributes().getValue(Attributes.Name.MAIN_CLASS) != null;
+        }
+    }
+
+    @Override
+    public String getUsage() {
+        return "creates a class data sharing archive for a JAR file with a Main-Class attribute by a training run.\n"
+                + "            The arguments are: <jar-name> [" + ARCHIVE + " <archive>] [" + INPUT + " <file>]\n"
+                + "                [" + JAVA + " <java executable>] [" + JVM_OPTION + " <option>]* [" + TIMEOUT + " <seconds>], where:\n"
+                + "                " + ARCHIVE + " sets the archive file, <jar-name> with the extension '.jsa' by default;\n"
+                + "                " + INPUT + " sets the file the training run reads as its standard input;\n"
+                + "                " + JAVA + " sets the Java runtime, which must be the one to run the solution,\n"
+                + "                    the one running this program by default;\n"
+                + "                " + JVM_OPTION + " adds an option of the training run, which should be the same\n"
+                + "                    as the ones the solution is run with;\n"
+                + "                " + TIMEOUT + " sets the time limit of the training run, "
+                + DEFAULT_TIMEOUT_SECONDS + " seconds by default.\n"
+                + "            The solution is then run as: java -XX:SharedArchiveFile=<archive> -jar <jar-name>";
+    }
+}
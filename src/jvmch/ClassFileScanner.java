@@ -0,0 +1,291 @@
+package jvmch;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * This is a scanner of class files which works directly on the bytes of the class file.
+ *
+ * The scanner records only where the constant pool entries are located, and compares the strings
+ * it is interested in without decoding them, so scanning a class does not allocate anything
+ * once the scanner has seen a constant pool of the same size. For this reason, it is a good idea
+ * to reuse one scanner for many classes. A scanner is not thread-safe.
+ *
+ * @author Maxim Buzdalov
+ */
+public final class ClassFileScanner {
+    private static final int ACC_PUBLIC_STATIC = 0x0009;
+    private static final byte[] MAIN_NAME = "main".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] MAIN_DESCRIPTOR = "([Ljava/lang/String;)V".getBytes(StandardCharsets.UTF_8);
+
+    private byte[] buffer;
+    private int end;
+    private int[] constantOffsets = new int[256];
+    private int constantPoolCount;
+    private boolean hasMainMethod;
+
+    /**
+     * Scans the class file contained in the given part of the buffer.
+     * The buffer must not be modified as long as the results of the scan are in use.
+     *
+     * @param buffer the buffer containing the class file.
+     * @param offset the offset of the class file in the buffer.
+     * @param length the length of the class file.
+     * @return {@code true} if the class file was scanned successfully,
+     *         {@code false} if it is not a class file or if it is truncated.
+     * @throws IOException if the class file uses a constant pool tag unknown to the scanner.
+     */
+    public boolean scan(byte[] buffer, int offset, int length) throws IOException {
+        this.buffer = buffer;
+        this.end = offset + length;
+        this.constantPoolCount = 0;
+        this.hasMainMethod = false;
+        if (!scanImpl(offset, length)) {
+            constantPoolCount = 0;
+            return false;
+        }
+        return true;
+    }
+
+    private boolean scanImpl(int offset, int length) throws IOException {
+        if (length < 10 || u4(offset) != 0xCAFEBABE) {
+            return false;
+        }
+        // Minor and major versions are at offset + 4 and offset + 6, respectively.
+        int count = u2(offset + 8);
+        if (count <= 0) {
+            return false;
+        }
+        if (constantOffsets.length < count) {
+            constantOffsets = new int[Math.max(count, constantOffsets.length * 2)];
+        }
+        constantOffsets[0] = -1;
+        int p = offset + 10;
+        for (int i = 1; i < count; ++i) { // this starts really from 1, see JLS.
+            if (p >= end) {
+                return false;
+            }
+            constantOffsets[i] = p;
+            int tag = buffer[p] & 0xff;
+            switch (tag) {
+                case 1: // "UTF-8"
+                    if (p + 3 > end) {
+                        return false;
+                    }
+                    p += 3 + u2(p + 1);
+                    break;
+                case 3: // Integer
+                case 4: // Float
+                    p += 5;
+                    break;
+                case 5: // Long
+                case 6: // Double
+                    p += 9;
+                    if (i + 1 < count) {
+                        constantOffsets[++i] = -1; // these two take up TWO SLOTS!
+                    }
+                    break;
+                case 7: // Class
+                case 8: // String
+                case 16: // Method type
+                case 19: // Module, Java 9
+                case 20: // Package, Java 9
+                    p += 3;
+                    break;
+                case 9: // Field reference
+                case 10: // Method reference
+                case 11: // Interface method reference
+                case 12: // Name and type
+                case 17: // Dynamic, Java 11
+                case 18: // Invoke dynamic
+                    p += 5;
+                    break;
+                case 15: // Method handle
+                    p += 4;
+                    break;
+                default:
+                    throw new IOException("Unknown JVM constant pool tag: " + tag
+                            + ". Please notify the course administrator.");
+            }
+        }
+        if (p + 8 > end) {
+            return false;
+        }
+        constantPoolCount = count;
+        // Access flags, this class and super class.
+        p += 6;
+        int interfaceCount = u2(p);
+        p += 2 + 2 * interfaceCount;
+        if (p + 2 > end) {
+            return false;
+        }
+        int fieldsCount = u2(p);
+        p += 2;
+        for (int i = 0; i < fieldsCount; ++i) {
+            if (p + 8 > end) {
+                return false;
+            }
+            p = skipAttributes(p + 6);
+            if (p < 0) {
+                return false;
+            }
+        }
+        if (p + 2 > end) {
+            return false;
+        }
+        int methodsCount = u2(p);
+        p += 2;
+        boolean foundMain = false;
+        for (int i = 0; i < methodsCount; ++i) {
+            if (p + 8 > end) {
+                return false;
+            }
+            int accessFlags = u2(p);
+            int nameIndex = u2(p + 2);
+            int descriptorIndex = u2(p + 4);
+            p = skipAttributes(p + 6);
+            if (p < 0) {
+                return false;
+            }
+            if ((accessFlags & ACC_PUBLIC_STATIC) == ACC_PUBLIC_STATIC
+                    && utf8Equals(nameIndex, MAIN_NAME)
+                    && utf8Equals(descriptorIndex, MAIN_DESCRIPTOR)) {
+                foundMain = true;
+            }
+        }
+        if (p + 2 > end || skipAttributes(p) < 0) {
+            return false;
+        }
+        hasMainMethod = foundMain;
+        return true;
+    }
+
+    /**
+     * Returns whether the last scanned class has a {@code public static void main(String[])} method.
+     */
+    public boolean hasMainMethod() {
+        return hasMainMethod;
+    }
+
+    /**
+     * Returns the constant pool count of the last scanned class, which is one more than the largest valid index.
+     */
+    public int getConstantPoolCount() {
+        return constantPoolCount;
+    }
+
+    /**
+     * Returns the tag of the constant pool entry with the given index,
+     * or zero if the index does not point to the start of an entry.
+     */
+    public int getTag(int index) {
+        if (index <= 0 || index >= constantPoolCount || constantOffsets[index] < 0) {
+            return 0;
+        }
+        return buffer[constantOffsets[index]] & 0xff;
+    }
+
+    /**
+     * Returns whether the constant pool entry with the given index is a UTF-8 entry
+     * whose bytes are exactly the given ones.
+     */
+    public boolean utf8Equals(int index, byte[] expected) {
+        if (getTag(index) != 1) {
+            return false;
+        }
+        int offset = constantOffsets[index];
+        int length = u2(offset + 1);
+        if (length != expected.length) {
+            return false;
+        }
+        for (int i = 0, p = offset + 3; i < length; ++i, ++p) {
+            if (buffer[p] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the string value of the UTF-8 constant pool entry with the given index,
+     * or {@code null} if the entry is not a UTF-8 one.
+     */
+    public String getUtf8(int index) {
+        if (getTag(index) != 1) {
+            return null;
+        }
+        int offset = constantOffsets[index];
+        try {
+            return new DataInputStream(new ByteArrayInputStream(buffer, offset + 1, u2(offset + 1) + 2)).readUTF();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns whether the constant pool of the last scanned class has a UTF-8 entry
+     * whose bytes are exactly the given ones.
+     */
+    public boolean hasUtf8(byte[] expected) {
+        for (int i = 1; i < constantPoolCount; ++i) {
+            if (utf8Equals(i, expected)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gives the consumer every class name, in the internal form, which the UTF-8 constant pool entries
+     * of the last scanned class may refer to: the entries themselves, with dots replaced by slashes,
+     * and the class names in the descriptors and signatures they contain. This is conservative,
+     * so most of the names given are not names of any classes, and the same name may be given many times.
+     */
+    public void forEachReferencedName(Consumer<String> consumer) {
+        for (int i = 1; i < constantPoolCount; ++i) {
+            String string = getUtf8(i);
+            if (string == null) {
+                continue;
+            }
+            consumer.accept(string.replace('.', '/'));
+            // Descriptors and signatures refer to classes as 'L<name>;', possibly among other things.
+            for (int l = string.indexOf('L'); l >= 0; l = string.indexOf('L', l + 1)) {
+                int semicolon = string.indexOf(';', l);
+                if (semicolon < 0) {
+                    break;
+                }
+                consumer.accept(string.substring(l + 1, semicolon));
+            }
+        }
+    }
+
+    private int skipAttributes(int p) {
+        if (p + 2 > end) {
+            return -1;
+        }
+        int attributesCount = u2(p);
+        p += 2;
+        for (int a = 0; a < attributesCount; ++a) {
+            if (p + 6 > end) {
+                return -1;
+            }
+            long length = u4(p + 2) & 0xffffffffL; // after the attribute name index
+            if (p + 6 + length > end) {
+                return -1;
+            }
+            p += 6 + (int) length;
+        }
+        return p;
+    }
+
+    private int u2(int p) {
+        return ((buffer[p] & 0xff) << 8) | (buffer[p + 1] & 0xff);
+    }
+
+    private int u4(int p) {
+        return (buffer[p] << 24) | ((buffer[p + 1] & 0xff) << 16) | ((buffer[p + 2] & 0xff) << 8) | (buffer[p + 3] & 0xff);
+    }
+}
@@ -0,0 +1,139 @@
+package jvmch;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This is what runs a chain of commands, running the commands which do not depend on each other concurrently.
+ *
+ * A command depends on an earlier one if one of them writes a file the other one reads or writes,
+ * or if any of them does not tell which files it reads and writes. A command starts only when
+ * all the commands it depends on have succeeded, and no command starts once some command has failed.
+ * The commands which do not tell which files they use are run on the calling thread
+ * when everything before them has finished, and everything after them waits for them to finish.
+ *
+ * The output of the commands run concurrently is collected and printed in the order of the commands,
+ * so it does not get mixed up.
+ *
+ * @author Maxim Buzdalov
+ */
+final class CommandScheduler {
+    private final List<Main.Command> commands;
+    private final List<Set<Path>> intermediateFiles;
+    private final PrintStream out;
+    private final PrintStream err;
+    private final Context context;
+    private final AtomicBoolean failed = new AtomicBoolean(false);
+    private final List<CompletableFuture<Result>> results = new ArrayList<>();
+    private int printed = 0;
+
+    CommandScheduler(List<Main.Command> commands, List<Set<Path>> intermediateFiles, PrintStream out, PrintStream err) {
+        this.commands = commands;
+        this.intermediateFiles = intermediateFiles;
+        this.out = out;
+        this.err = err;
+        this.context = new Context(out, err);
+    }
+
+    /**
+     * Runs the commands and returns the exit code of the chain: zero if all of them have succeeded,
+     * {@link Main#EXIT_DEADLINE_EXCEEDED} if some command has not finished in time, and one otherwise.
+     */
+    int run() {
+        ExecutorService executor = null;
+        try {
+            for (int i = 0; i < commands.size(); ++i) {
+                Main.Command command = commands.get(i);
+                if (!command.hasKnownFiles() || commands.size() == 1) {
+                    printUpTo(i);
+                    if (failed.get()) {
+                        break;
+                    }
+                    boolean success = command.run(context.forCommand(out, err, intermediateFiles.get(i), command.metrics));
+                    if (!success) {
+                        failed.set(true);
+                    }
+                    results.add(CompletableFuture.completedFuture(null));
+                } else {
+                    if (executor == null) {
+                        executor = Executors.newFixedThreadPool(Math.min(commands.size(), Runtime.getRuntime().availableProcessors()));
+                    }
+                    results.add(schedule(i, executor));
+                }
+            }
+            printUpTo(results.size());
+            return !failed.get() ? 0 : context.isDeadlineExceeded() ? Main.EXIT_DEADLINE_EXCEEDED : 1;
+        } finally {
+            if (executor != null) {
+                executor.shutdown();
+            }
+        }
+    }
+
+    private CompletableFuture<Result> schedule(int index, ExecutorService executor) {
+        Main.Command command = commands.get(index);
+        List<CompletableFuture<Result>> dependencies = new ArrayList<>();
+        for (int i = printed; i < index; ++i) {
+            if (command.dependsOn(commands.get(i))) {
+                dependencies.add(results.get(i));
+            }
+        }
+        return CompletableFuture
+                .allOf(dependencies.toArray(new CompletableFuture<?>[dependencies.size()]))
+                .thenApplyAsync(ignored -> runBuffered(index), executor);
+    }
+
+    private Result runBuffered(int index) {
+        if (failed.get()) {
+            return null;
+        }
+        Result result = new Result();
+        boolean success = false;
+        try (PrintStream commandOut = result.newOut(); PrintStream commandErr = result.newErr()) {
+            try {
+                Main.Command command = commands.get(index);
+                success = command.run(context.forCommand(commandOut, commandErr, intermediateFiles.get(index), command.metrics));
+            } catch (RuntimeException e) {
+                e.printStackTrace(commandErr);
+            }
+        } finally {
+            if (!success) {
+                failed.set(true);
+            }
+        }
+        return result;
+    }
+
+    private void printUpTo(int end) {
+        for (; printed < end; ++printed) {
+            Result result = results.get(printed).join();
+            if (result != null) {
+                out.write(result.out.toByteArray(), 0, result.out.size());
+                out.flush();
+                err.write(result.err.toByteArray(), 0, result.err.size());
+                err.flush();
+            }
+        }
+    }
+
+    private static class Result {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+        private PrintStream newOut() {
+            return new PrintStream(out, true);
+        }
+
+        private PrintStream newErr() {
+            return new PrintStream(err, true);
+        }
+    }
+}
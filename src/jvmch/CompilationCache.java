@@ -0,0 +1,158 @@
+package jvmch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * This is an on-disk cache of JAR files produced by compilation, addressed by the contents of what was compiled.
+ *
+ * The key of a cache entry is a hash of the Java runtime version, the options which affect the result,
+ * and the names and the contents of all the source files. The entries are evicted in the order
+ * of their last use whenever the total size of the cache exceeds the limit.
+ *
+ * Several processes may share the same cache directory: the entries are created atomically,
+ * and a vanishing entry is treated as a miss.
+ *
+ * @author Maxim Buzdalov
+ */
+class CompilationCache {
+    private static final String EXTENSION = ".jar";
+
+    private final Path directory;
+    private final long sizeLimit;
+
+    CompilationCache(File directory, long sizeLimit) {
+        this.directory = directory.toPath();
+        this.sizeLimit = sizeLimit;
+    }
+
+    String computeKey(List<String> options, File[] sources) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        update(digest, System.getProperty("java.vendor"));
+        update(digest, System.getProperty("java.runtime.version"));
+        update(digest, String.valueOf(options.size()));
+        for (String option : options) {
+            update(digest, option);
+        }
+        update(digest, String.valueOf(sources.length));
+        for (File source : sources) {
+            update(digest, source.getName());
+            update(digest, Files.readAllBytes(source.toPath()));
+        }
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest()) {
+            key.append(Character.forDigit((b >>> 4) & 15, 16)).append(Character.forDigit(b & 15, 16));
+        }
+        return key.toString();
+    }
+
+    /**
+     * Copies the cached JAR file with the given key to the given file.
+     * Returns {@code false} if there is no such entry in the cache.
+     */
+    boolean fetch(String key, File target, Context context) throws IOException {
+        Path entry = directory.resolve(key + EXTENSION);
+        InputStream input;
+        try {
+            input = Files.newInputStream(entry);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        try (InputStream in = input;
+             OutputStream out = context.openOutput(target)) {
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) > 0) {
+                out.write(buffer, 0, count);
+            }
+        }
+        try {
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (NoSuchFileException e) {
+            // Another process has evicted the entry after we have copied it, which is fine.
+        }
+        return true;
+    }
+
+    /**
+     * Stores a copy of the given JAR file under the given key, then evicts the least recently used entries
+     * until the cache fits into its size limit.
+     */
+    void store(String key, File source, Context context) throws IOException {
+        Files.createDirectories(directory);
+        Path temporary = Files.createTempFile(directory, key, ".tmp");
+        try {
+            try (InputStream input = context.openInput(source)) {
+                Files.copy(input, temporary, StandardCopyOption.REPLACE_EXISTING);
+            }
+            Files.move(temporary, directory.resolve(key + EXTENSION), StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        evict();
+    }
+
+    private void evict() throws IOException {
+        List<CachedFile> entries = new ArrayList<>();
+        long totalSize = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+            for (Path entry : stream) {
+                try {
+                    CachedFile file = new CachedFile(entry, Files.getLastModifiedTime(entry).toMillis(), Files.size(entry));
+                    entries.add(file);
+                    totalSize += file.size;
+                } catch (NoSuchFileException e) {
+                    // Evicted by someone else in the meantime.
+                }
+            }
+        }
+        if (totalSize <= sizeLimit) {
+            return;
+        }
+        entries.sort(Comparator.comparingLong(e -> e.lastUsed));
+        for (CachedFile entry : entries) {
+            if (totalSize <= sizeLimit) {
+                break;
+            }
+            Files.deleteIfExists(entry.path);
+            totalSize -= entry.size;
+        }
+    }
+
+    private static class CachedFile {
+        private final Path path;
+        private final long lastUsed;
+        private final long size;
+
+        private CachedFile(Path path, long lastUsed, long size) {
+            this.path = path;
+            this.lastUsed = lastUsed;
+            this.size = size;
+        }
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        update(digest, value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void update(MessageDigest digest, byte[] value) {
+        int length = value.length;
+        digest.update(new byte[] { (byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8), (byte) length });
+        digest.update(value);
+    }
+}
@@ -0,0 +1,151 @@
+package jvmch;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This is the module which keeps a single JVM running and executes command chains sent to it as requests.
+ *
+ * Each request is a single line containing a command chain exactly as it would be given on the command line,
+ * with arguments separated by whitespace. For each request, the server responds with everything the commands
+ * have printed, each line prefixed by {@code "| "}, followed by a line {@code "exit <code>"},
+ * where the code is the one the command line invocation would have exited with.
+ *
+ * When listening at a port, the server prints the line {@code "Listening at port <port>"} once it is ready
+ * to accept connections, which tells the port it has got when it is asked to listen at port zero.
+ *
+ * As the server keeps its working directory, the paths in the requests should better be absolute.
+ *
+ * @author Maxim Buzdalov
+ */
+public class CompileServer extends Module {
+    private static final String PORT = "--port";
+    private static final String OUTPUT_PREFIX = "| ";
+    private static final String EXIT_PREFIX = "exit ";
+    static final String LISTENING_PREFIX = "Listening at port ";
+
+    private final Map<String, Module> modules;
+
+    public CompileServer(Map<String, Module> modules) {
+        this.modules = modules;
+    }
+
+    @Override
+    public boolean checkArgs(String[] args, int argumentOffset, PrintStream err) {
+        if (args.length == 0) {
+            return true;
+        }
+        if (args.length == 2 && args[0].equals(PORT)) {
+            try {
+                int port = Integer.parseInt(args[1]);
+                if (port >= 0 && port <= 65535) {
+                    return true;
+                }
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        err.println("Error: expected the arguments for the command at index "
+                + (argumentOffset + 1) + " to be either empty or '" + PORT + " <port>'.");
+        return false;
+    }
+
+    @Override
+    public String getUsage() {
+        return "serves command chains as requests, one per line, without restarting the JVM.\n"
+                + "            The arguments are: [" + PORT + " <port>], where:\n"
+                + "                " + PORT + " means to listen at the given port of the loopback interface\n"
+                + "                    instead of reading requests from the standard input;\n"
+                + "                    the port zero means any free one, which is printed once the server is listening.\n"
+                + "            The response to every request is its output, each line prefixed by '" + OUTPUT_PREFIX
+                + "',\n"
+                + "            followed by the line '" + EXIT_PREFIX + "<code>'.";
+    }
+
+    @Override
+    public boolean run(String[] args, Context context) {
+        PrintStream out = context.getOut();
+        PrintStream err = context.getErr();
+        try {
+            if (args.length == 0) {
+                serve(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)), out);
+            } else {
+                serve(Integer.parseInt(args[1]), out, err);
+            }
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace(err);
+            return false;
+        }
+    }
+
+    private void serve(int port, PrintStream out, PrintStream err) throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(port, 0, InetAddress.getLoopbackAddress())) {
+            out.println(LISTENING_PREFIX + serverSocket.getLocalPort());
+            out.flush();
+            while (true) {
+                Socket socket = serverSocket.accept();
+                Thread thread = new Thread(() -> {
+                    try (Socket s = socket;
+                         BufferedReader reader = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+                         PrintStream writer = new PrintStream(s.getOutputStream(), true, "UTF-8")) {
+                        serve(reader, writer);
+                    } catch (IOException e) {
+                        e.printStackTrace(err);
+                    }
+                });
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+    }
+
+    private void serve(BufferedReader reader, PrintStream writer) throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            String trimmed = line.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            int exitCode;
+            try (PrintStream captured = new PrintStream(buffer, true, "UTF-8")) {
+                exitCode = process(trimmed.split("\\s+"), captured);
+            }
+            BufferedReader output = new BufferedReader(new StringReader(new String(buffer.toByteArray(), StandardCharsets.UTF_8)));
+            String outputLine;
+            while ((outputLine = output.readLine()) != null) {
+                writer.print(OUTPUT_PREFIX);
+                writer.println(outputLine);
+            }
+            writer.println(EXIT_PREFIX + exitCode);
+            writer.flush();
+        }
+    }
+
+    private int process(String[] request, PrintStream output) {
+        int globalOptions = Main.countGlobalOptions(request);
+        for (int i = globalOptions; i < request.length; ++i) {
+            if ((i == globalOptions || request[i - 1].equals("--then")) && modules.get(request[i]) == this) {
+                output.println("Error: the server cannot be started from within a request.");
+                return 1;
+            }
+        }
+        try {
+            List<Main.Command> commandsToRun = Main.parseCommands(modules, request, globalOptions, output);
+            if (commandsToRun == null) {
+                return 1;
+            }
+            File metricsFile = globalOptions == 0 ? null : new File(request[1]);
+            return Main.runCommands(commandsToRun, output, output, metricsFile);
+        } catch (RuntimeException e) {
+            // One broken request must not take the whole server down.
+            e.printStackTrace(output);
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package jvmch;
+
+import java.util.zip.Deflater;
+
+/**
+ * This is how the entries of the produced JAR files are compressed: either stored without compression,
+ * or deflated with the given level.
+ *
+ * Storing is the cheapest choice for the JAR files which are run once on the same machine soon after
+ * they are produced: no time is spent on compression when the file is written, nor on decompression
+ * when the classes are loaded.
+ *
+ * @author Maxim Buzdalov
+ */
+final class Compression {
+    private static final String STORE_VALUE = "store";
+
+    static final Compression DEFAULT = new Compression(false, Deflater.DEFAULT_COMPRESSION);
+    static final Compression STORE = new Compression(true, Deflater.NO_COMPRESSION);
+
+    private final boolean stored;
+    private final int level;
+
+    private Compression(boolean stored, int level) {
+        this.stored = stored;
+        this.level = level;
+    }
+
+    /**
+     * Parses the value of a {@code --compression} option, which is either {@code store} or a deflate level
+     * from 0 to 9, returning {@code null} if it is not valid.
+     */
+    static Compression parse(String value) {
+        if (value.equals(STORE_VALUE)) {
+            return STORE;
+        }
+        if (value.length() == 1 && value.charAt(0) >= '0' && value.charAt(0) <= '9') {
+            return new Compression(false, value.charAt(0) - '0');
+        }
+        return null;
+    }
+
+    /**
+     * Returns whether the entries are stored without compression.
+     */
+    boolean isStored() {
+        return stored;
+    }
+
+    /**
+     * Returns the deflate level, which makes sense only if the entries are not stored.
+     */
+    int getLevel() {
+        return level;
+    }
+
+    @Override
+    public String toString() {
+        return stored ? STORE_VALUE : this == DEFAULT ? "default" : String.valueOf(level);
+    }
+}
@@ -0,0 +1,249 @@
+package jvmch;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * This is what a module is given to run within a command chain: the streams to print to,
+ * and the access to the files produced and consumed by the modules.
+ *
+ * Some of the files a module writes may be designated as in-memory ones. This is done for the files
+ * which are produced by a module only to be consumed and overwritten by later modules of the same chain,
+ * so there is no point in writing them to disk. Such files are kept in a storage shared by all the contexts
+ * of the chain, and whenever a module reads a file which is there, it gets the kept contents.
+ * The modules access all the files they produce or consume through a context, and do not notice the difference.
+ *
+ * @author Maxim Buzdalov
+ */
+public final class Context {
+    private final PrintStream out;
+    private final PrintStream err;
+    private final Set<Path> inMemoryOutputs;
+    private final Map<Path, byte[]> memory;
+    private final Metrics metrics;
+    private final AtomicReference<Deadline> exceededDeadline;
+    private final AdmissionController admission;
+
+    public Context(PrintStream out, PrintStream err) {
+        this(out, err, Collections.emptySet(), new ConcurrentHashMap<>(), Metrics.DISABLED, new AtomicReference<>(),
+             AdmissionController.SHARED);
+    }
+
+    private Context(PrintStream out, PrintStream err, Set<Path> inMemoryOutputs, Map<Path, byte[]> memory,
+                    Metrics metrics, AtomicReference<Deadline> exceededDeadline, AdmissionController admission) {
+        this.out = out;
+        this.err = err;
+        this.inMemoryOutputs = inMemoryOutputs;
+        this.memory = memory;
+        this.metrics = metrics;
+        this.exceededDeadline = exceededDeadline;
+        this.admission = admission;
+    }
+
+    /**
+     * Returns a context with the given streams and metrics, and the same in-memory storage,
+     * which keeps the given files in memory when they are written.
+     */
+    Context forCommand(PrintStream out, PrintStream err, Set<Path> inMemoryOutputs, Metrics metrics) {
+        return new Context(out, err, inMemoryOutputs, memory, metrics, exceededDeadline, admission);
+    }
+
+    /**
+     * Returns the same context, except that the compilations are admitted by the given controller.
+     */
+    Context withAdmission(AdmissionController admission) {
+        return new Context(out, err, inMemoryOutputs, memory, metrics, exceededDeadline, admission);
+    }
+
+    public PrintStream getOut() {
+        return out;
+    }
+
+    public PrintStream getErr() {
+        return err;
+    }
+
+    /**
+     * Returns the metrics the module should report its phases to.
+     */
+    Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the controller which admits the compilations, which is the shared one unless told otherwise.
+     */
+    AdmissionController getAdmission() {
+        return admission;
+    }
+
+    /**
+     * Tells that the module has failed because it has not finished in the time it has been given,
+     * so that the chain exits with {@link Main#EXIT_DEADLINE_EXCEEDED}.
+     */
+    void reportDeadlineExceeded(Deadline deadline) {
+        exceededDeadline.set(deadline);
+    }
+
+    /**
+     * Returns whether some module of the chain has failed because it has not finished in time.
+     */
+    boolean isDeadlineExceeded() {
+        return exceededDeadline.get() != null;
+    }
+
+    /**
+     * Runs the given action once the javac abandoned by the deadline reported last has finished,
+     * which is right away if no deadline has been reported.
+     */
+    void whenAbandonedJavacFinished(Runnable action) {
+        Deadline deadline = exceededDeadline.get();
+        if (deadline == null) {
+            action.run();
+        } else {
+            deadline.whenJavacFinished(action);
+        }
+    }
+
+    /**
+     * Converts a file to the form used to designate in-memory files.
+     */
+    static Path key(File file) {
+        return file.getAbsoluteFile().toPath().normalize();
+    }
+
+    private boolean isWrittenToMemory(File file) {
+        if (inMemoryOutputs.contains(key(file))) {
+            return true;
+        }
+        // The file is going to be written to disk, so what was kept in memory becomes stale.
+        memory.remove(key(file));
+        return false;
+    }
+
+    private boolean isReadFromMemory(File file) {
+        return memory.containsKey(key(file));
+    }
+
+    /**
+     * Opens the given file for writing.
+     */
+    OutputStream openOutput(File file) throws IOException {
+        if (!isWrittenToMemory(file)) {
+            return new FileOutputStream(file);
+        }
+        Path key = key(file);
+        return new ByteArrayOutputStream() {
+            @Override
+            public void close() {
+                memory.put(key, toByteArray());
+            }
+        };
+    }
+
+    /**
+     * Opens the given file for reading.
+     */
+    InputStream openInput(File file) throws IOException {
+        if (!isReadFromMemory(file)) {
+            return new FileInputStream(file);
+        }
+        return new ByteArrayInputStream(getContents(file));
+    }
+
+    /**
+     * Opens the given ZIP file for reading its entries.
+     */
+    ZipDirectory openZip(File file) throws IOException {
+        if (!isReadFromMemory(file)) {
+            return ZipDirectory.open(file);
+        }
+        return new ZipDirectory(ByteBuffer.wrap(getContents(file)).asReadOnlyBuffer());
+    }
+
+    /**
+     * Writes a ZIP file with the given contents. As the contents are collected before the file is replaced,
+     * the file may as well be one of the files the contents are taken from.
+     */
+    void writeZip(File file, ZipWriter.Contents contents) throws IOException {
+        if (!isWrittenToMemory(file)) {
+            ZipWriter.write(file, contents);
+        } else {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            try (ZipWriter writer = new ZipWriter(buffer)) {
+                contents.writeTo(writer);
+            }
+            memory.put(key(file), buffer.toByteArray());
+        }
+    }
+
+    /**
+     * Writes the given file by the given action, which must write the stream it is given and then close it.
+     * The file is replaced only when the action is done, so it may as well be one of the files the action reads.
+     */
+    void replace(File file, Output output) throws IOException {
+        Path key = key(file);
+        if (inMemoryOutputs.contains(key)) {
+            output.writeTo(openOutput(file));
+            return;
+        }
+        Path temporary = Files.createTempFile(key.getParent(), key.getFileName() + ".writing", ".tmp");
+        try {
+            output.writeTo(new FileOutputStream(temporary.toFile()));
+            Files.move(temporary, key, StandardCopyOption.REPLACE_EXISTING);
+            // Whatever was kept in memory is stale only now, as the action may have read it.
+            memory.remove(key);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Copies the given file to the given target, which must not exist unless it is the same file.
+     */
+    void copy(File source, File target) throws IOException {
+        if (key(source).equals(key(target))) {
+            if (isReadFromMemory(source) && !inMemoryOutputs.contains(key(target))) {
+                byte[] contents = getContents(source);
+                try (OutputStream output = openOutput(target)) {
+                    output.write(contents);
+                }
+            }
+        } else if (!isReadFromMemory(source) && !inMemoryOutputs.contains(key(target))) {
+            memory.remove(key(target));
+            Files.copy(source.toPath(), target.toPath());
+        } else {
+            try (InputStream input = openInput(source);
+                 OutputStream output = openOutput(target)) {
+                byte[] buffer = new byte[8192];
+                int count;
+                while ((count = input.read(buffer)) > 0) {
+                    output.write(buffer, 0, count);
+                }
+            }
+        }
+    }
+
+    /**
+     * This is what writes a file replaced by {@link #replace(File, Output)}.
+     */
+    interface Output {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    private byte[] getContents(File file) throws FileNotFoundException {
+        byte[] contents = memory.get(key(file));
+        if (contents == null) {
+            throw new FileNotFoundException(file.getPath());
+        }
+        return contents;
+    }
+}
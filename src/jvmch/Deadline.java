@@ -0,0 +1,186 @@
+package jvmch;
+
+import com.sun.source.util.TaskEvent;
+import com.sun.source.util.TaskListener;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This is the point in time by which a compilation must be over, which cancels javac once it has passed.
+ *
+ * The compilation runs on a thread of its own, which is waited for no longer than the deadline allows,
+ * so the command fails as soon as the deadline passes. The javac itself is then abandoned, and it is stopped
+ * cooperatively: as a task listener of the compiler, the deadline is checked whenever javac starts
+ * or finishes a phase for a source file or a class, which is parsing, entering, analyzing and generating,
+ * and once it has passed, javac is stopped by an exception thrown from the listener. A single class
+ * which takes javac long to analyze thus keeps the abandoned thread busy until its analysis is over,
+ * but nothing else is compiled after that, no class files are written, and nothing is printed.
+ *
+ * Whatever the abandoned javac may still be using, such as the reserved heap and the directory it writes
+ * the class files to, is released by the actions given to {@link #whenJavacFinished(Runnable)}.
+ * As the abandoned javac does not outlive the process, the actions still waiting for it are run
+ * by {@link #runPendingActions()} before the process exits.
+ *
+ * @author Maxim Buzdalov
+ */
+final class Deadline implements TaskListener {
+    private static final Set<Runnable> pendingActions = ConcurrentHashMap.newKeySet();
+
+    private final long millis;
+    private final long expiresAt;
+    private volatile boolean exceeded = false;
+    private volatile CompletableFuture<?> javac = CompletableFuture.completedFuture(null);
+    private volatile long javacAllocatedBytes = 0;
+
+    /**
+     * Creates the deadline the given number of milliseconds from now.
+     */
+    Deadline(long millis) {
+        this.millis = millis;
+        this.expiresAt = System.nanoTime() + millis * 1000000;
+    }
+
+    /**
+     * Returns the number of milliseconds the compilation has been given.
+     */
+    long getMillis() {
+        return millis;
+    }
+
+    /**
+     * Returns whether the compilation has been cancelled by this deadline.
+     */
+    boolean isExceeded() {
+        return exceeded;
+    }
+
+    /**
+     * Returns the number of nanoseconds left until the deadline, which is not positive once it has passed.
+     */
+    long remainingNanos() {
+        return expiresAt - System.nanoTime();
+    }
+
+    /**
+     * Cancels the compilation, whether or not the deadline has passed, which is what is done
+     * to the compilation which has been abandoned.
+     */
+    void expire() {
+        exceeded = true;
+    }
+
+    /**
+     * Remembers the javac which runs on a thread of its own, and which has allocated the number of bytes
+     * given to {@link #setJavacAllocatedBytes(long)} on that thread by the time it has finished.
+     */
+    void setJavac(CompletableFuture<?> javac) {
+        this.javac = javac;
+    }
+
+    /**
+     * Sets the number of bytes allocated by javac on its own thread, or -1 if this cannot be measured.
+     */
+    void setJavacAllocatedBytes(long bytes) {
+        javacAllocatedBytes = bytes;
+    }
+
+    /**
+     * Returns the number of bytes allocated by javac on its own thread, which is known once it has finished,
+     * and is zero if it has not run on a thread of its own.
+     */
+    long getJavacAllocatedBytes() {
+        return javacAllocatedBytes;
+    }
+
+    /**
+     * Runs the given action once javac has finished, which is right away unless it has been abandoned,
+     * or once the process is about to exit, whichever is earlier.
+     */
+    void whenJavacFinished(Runnable action) {
+        AtomicBoolean done = new AtomicBoolean();
+        Runnable once = new Runnable() {
+            @Override
+            public void run() {
+                if (done.compareAndSet(false, true)) {
+                    pendingActions.remove(this);
+                    action.run();
+                }
+            }
+        };
+        pendingActions.add(once);
+        javac.whenComplete((result, error) -> once.run());
+    }
+
+    /**
+     * Runs the actions still waiting for the abandoned javacs, which must be done before the process exits.
+     */
+    static void runPendingActions() {
+        for (Runnable action : new ArrayList<>(pendingActions)) {
+            action.run();
+        }
+    }
+
+    /**
+     * Returns the writer which writes to the given one until the compilation is cancelled,
+     * and drops everything written after that.
+     */
+    Writer guard(Writer out) {
+        return new FilterWriter(out) {
+            @Override
+            public void write(int c) throws IOException {
+                if (!exceeded) {
+                    super.write(c);
+                }
+            }
+
+            @Override
+            public void write(char[] buffer, int offset, int length) throws IOException {
+                if (!exceeded) {
+                    super.write(buffer, offset, length);
+                }
+            }
+
+            @Override
+            public void write(String string, int offset, int length) throws IOException {
+                if (!exceeded) {
+                    super.write(string, offset, length);
+                }
+            }
+        };
+    }
+
+    private void check() {
+        if (exceeded || remainingNanos() <= 0) {
+            exceeded = true;
+            throw new Exceeded();
+        }
+    }
+
+    @Override
+    public void started(TaskEvent e) {
+        check();
+    }
+
+    @Override
+    public void finished(TaskEvent e) {
+        check();
+    }
+
+    /**
+     * This is what stops javac. It does not need a stack trace, as it is never printed.
+     */
+    static final class Exceeded extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Exceeded() {
+            super("The deadline is exceeded", null, false, false);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package jvmch;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticListener;
+import javax.tools.JavaFileObject;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * This is what prints the diagnostics of javac as they are reported, up to the given limits,
+ * so that a compilation which produces lots of errors does not produce lots of output as well.
+ *
+ * At most the given number of diagnostics, taking at most the given number of bytes, are printed,
+ * and the rest are only counted, which is reported by a single line in the end. The first diagnostics
+ * are the ones which are printed, as the later ones are more often than not caused by the earlier ones.
+ * Once the given number of errors is reported, javac is stopped by an exception thrown from the listener.
+ *
+ * The diagnostics are printed either in the form close to the one javac uses, but without the source lines,
+ * or in the compact form, which is a line of tab-separated fields per diagnostic:
+ * <pre>
+ * diagnostic &lt;kind&gt; &lt;file&gt; &lt;line&gt; &lt;column&gt; &lt;code&gt; &lt;message&gt;
+ * omitted &lt;diagnostics&gt; &lt;errors&gt;
+ * stopped &lt;errors&gt;
+ * </pre>
+ * where the file, the line and the column are {@code -} if unknown, and the line breaks and tabs in the message
+ * are escaped as {@code \n} and {@code \t}, with backslashes doubled.
+ *
+ * @author Maxim Buzdalov
+ */
+final class DiagnosticPrinter implements DiagnosticListener<JavaFileObject> {
+    static final String TEXT = "text";
+    static final String COMPACT = "compact";
+
+    private final PrintStream err;
+    private final boolean compact;
+    private final int maxDiagnostics;
+    private final long maxBytes;
+    private final int maxErrors;
+
+    private int printed = 0;
+    private long printedBytes = 0;
+    private int omitted = 0;
+    private int omittedErrors = 0;
+    private int errors = 0;
+    private volatile boolean stopped = false;
+    private boolean finished = false;
+
+    /**
+     * Creates the printer with the given limits, where zero means no limit.
+     */
+    DiagnosticPrinter(PrintStream err, boolean compact, int maxDiagnostics, long maxBytes, int maxErrors) {
+        this.err = err;
+        this.compact = compact;
+        this.maxDiagnostics = maxDiagnostics == 0 ? Integer.MAX_VALUE : maxDiagnostics;
+        this.maxBytes = maxBytes == 0 ? Long.MAX_VALUE : maxBytes;
+        this.maxErrors = maxErrors == 0 ? Integer.MAX_VALUE : maxErrors;
+    }
+
+    /**
+     * Returns whether javac has been stopped because too many errors have been reported.
+     */
+    boolean isStopped() {
+        return stopped;
+    }
+
+    @Override
+    public synchronized void report(Diagnostic<? extends JavaFileObject> diagnostic) {
+        if (finished) {
+            // This is an abandoned compilation, which is not to print anything anymore.
+            return;
+        }
+        boolean isError = diagnostic.getKind() == Diagnostic.Kind.ERROR;
+        if (isError) {
+            ++errors;
+        }
+        String line = format(diagnostic);
+        int bytes = line.getBytes(StandardCharsets.UTF_8).length + 1;
+        if (printed < maxDiagnostics && printedBytes + bytes <= maxBytes) {
+            err.println(line);
+            ++printed;
+            printedBytes += bytes;
+        } else {
+            ++omitted;
+            if (isError) {
+                ++omittedErrors;
+            }
+        }
+        if (errors >= maxErrors) {
+            stopped = true;
+            throw new Stopped();
+        }
+    }
+
+    /**
+     * Prints what has been omitted and whether javac has been stopped. Must be called when javac is done,
+     * or when it is abandoned, after which nothing is printed anymore.
+     */
+    synchronized void finish() {
+        finished = true;
+        if (omitted > 0) {
+            err.println(compact
+                    ? "omitted\t" + omitted + "\t" + omittedErrors
+                    : omitted + " more diagnostics omitted, " + omittedErrors + " of them errors");
+        }
+        if (stopped) {
+            err.println(compact
+                    ? "stopped\t" + errors
+                    : "compilation stopped after " + errors + " errors");
+        }
+        err.flush();
+    }
+
+    private String format(Diagnostic<? extends JavaFileObject> diagnostic) {
+        JavaFileObject source = diagnostic.getSource();
+        String message = diagnostic.getMessage(Locale.ROOT);
+        if (compact) {
+            return "diagnostic\t" + diagnostic.getKind().name().toLowerCase(Locale.ROOT)
+                    + "\t" + (source == null ? "-" : escape(source.getName()))
+                    + "\t" + (diagnostic.getLineNumber() == Diagnostic.NOPOS ? "-" : diagnostic.getLineNumber())
+                    + "\t" + (diagnostic.getColumnNumber() == Diagnostic.NOPOS ? "-" : diagnostic.getColumnNumber())
+                    + "\t" + diagnostic.getCode()
+                    + "\t" + escape(message);
+        }
+        String kind;
+        switch (diagnostic.getKind()) {
+            case ERROR: kind = "error: "; break;
+            case WARNING:
+            case MANDATORY_WARNING: kind = "warning: "; break;
+            case NOTE: kind = "Note: "; break;
+            default: kind = "";
+        }
+        if (source == null) {
+            return kind + message;
+        }
+        String position = diagnostic.getLineNumber() == Diagnostic.NOPOS ? "" : ":" + diagnostic.getLineNumber();
+        return source.getName() + position + ": " + kind + message;
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\n", "\\n").replace("\r", "").replace("\t", "\\t");
+    }
+
+    /**
+     * This is what stops javac. It does not need a stack trace, as it is never printed.
+     */
+    static final class Stopped extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Stopped() {
+            super("Too many errors", null, false, false);
+        }
+    }
+}
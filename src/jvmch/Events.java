@@ -0,0 +1,126 @@
+package jvmch;
+
+import jdk.jfr.*;
+
+/**
+ * These are the Java Flight Recorder events of this project, so that what the modules are doing
+ * can be seen in recordings next to the GC and JIT events.
+ *
+ * The events are used in the usual way: created, begun, ended, and committed only if {@link Event#shouldCommit()},
+ * so that they cost next to nothing when no recording is running. The {@link JarEntryWrite} events are frequent
+ * for large JAR files; they can be switched off by {@code jvmch.JarEntryWrite#enabled=false}
+ * in the recording settings.
+ *
+ * @author Maxim Buzdalov
+ */
+final class Events {
+    private Events() {}
+
+    @Name("jvmch.ModuleRun")
+    @Label("Module Run")
+    @Category("jvmch")
+    @Description("A run of a module as a command of a chain")
+    static final class ModuleRun extends Event {
+        @Label("Module")
+        String module;
+
+        @Label("Input Files")
+        @Description("The number of files the module reads, or -1 if unknown")
+        int inputFiles;
+
+        @Label("Output Files")
+        @Description("The number of files the module writes, or -1 if unknown")
+        int outputFiles;
+
+        @Label("Success")
+        boolean success;
+    }
+
+    @Name("jvmch.JavacInvocation")
+    @Label("Javac Invocation")
+    @Category("jvmch")
+    @Description("A compilation of Java source files by javac")
+    static final class JavacInvocation extends Event {
+        @Label("Source Files")
+        int sourceFiles;
+
+        @Label("Source Size")
+        @DataAmount
+        long sourceBytes;
+
+        @Label("In Memory")
+        boolean inMemory;
+
+        @Label("Success")
+        boolean success;
+
+        @Label("Cancelled")
+        @Description("Whether javac has been cancelled as the deadline of the compilation has passed")
+        boolean cancelled;
+    }
+
+    @Name("jvmch.JarEntryWrite")
+    @Label("JAR Entry Write")
+    @Category("jvmch")
+    @Description("A write of a single entry of a JAR file")
+    static final class JarEntryWrite extends Event {
+        @Label("Entry")
+        String entry;
+
+        @Label("Size")
+        @DataAmount
+        long size;
+
+        @Label("Compressed Size")
+        @DataAmount
+        long compressedSize;
+
+        @Label("Raw Copy")
+        @Description("Whether the entry was copied from another JAR file without recompression")
+        boolean raw;
+    }
+
+    @Name("jvmch.ClassScan")
+    @Label("Class Scan")
+    @Category("jvmch")
+    @Description("A search for main classes among the classes of a JAR file")
+    static final class ClassScan extends Event {
+        @Label("JAR File")
+        String jarFile;
+
+        @Label("Classes")
+        int classes;
+
+        @Label("Class Size")
+        @DataAmount
+        long classBytes;
+
+        @Label("Main Classes")
+        int mainClasses;
+
+        @Label("Parallel")
+        boolean parallel;
+    }
+
+    @Name("jvmch.CompilationAdmission")
+    @Label("Compilation Admission")
+    @Category("jvmch")
+    @Description("A wait of a compilation until the heap budget allows it to run")
+    static final class CompilationAdmission extends Event {
+        @Label("Source Size")
+        @DataAmount
+        long sourceBytes;
+
+        @Label("Estimated Heap Use")
+        @DataAmount
+        long estimatedBytes;
+
+        @Label("Queue Depth")
+        @Description("The number of compilations waiting when this one arrived")
+        int queueDepth;
+
+        @Label("Admitted")
+        @Description("Whether the compilation was admitted rather than rejected")
+        boolean admitted;
+    }
+}
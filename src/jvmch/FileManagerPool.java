@@ -0,0 +1,98 @@
+package jvmch;
+
+import javax.tools.*;
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+/**
+ * This is the pool of the standard file managers of the system Java compiler, shared by all compilations in a process.
+ *
+ * A standard file manager is what finds the platform classes for the compiler, and it keeps what it has found
+ * for as long as it lives, so reusing one saves looking them up again for every compilation.
+ * Most of the symbols javac creates from those classes belong to a single compilation and cannot be reused
+ * without internal APIs, but opening and indexing the platform classes is done only once per file manager.
+ *
+ * A file manager is not thread-safe, so each compilation takes one from the pool for itself, creating a new one
+ * if all are in use, and gives it back when it is done. Before that, the locations a compilation may set,
+ * which are the output directories and the class path, are reset to their defaults, so that the next compilation
+ * sees neither the output directory nor the classes of the previous one. The source files are given to each
+ * compilation explicitly, so they are not looked up through the file manager at all.
+ *
+ * A file manager reports the problems with reading the source files, such as unmappable characters,
+ * to the diagnostic listener it has been created with rather than to the one of the compilation.
+ * So each file manager is created with a listener which forwards the diagnostics to the listener
+ * of the compilation which has taken the file manager from the pool.
+ *
+ * @author Maxim Buzdalov
+ */
+final class FileManagerPool {
+    private static final ConcurrentLinkedDeque<StandardJavaFileManager> idle = new ConcurrentLinkedDeque<>();
+    private static final Map<StandardJavaFileManager, ForwardingListener> listeners = new IdentityHashMap<>();
+
+    private FileManagerPool() {}
+
+    /**
+     * This is the diagnostic listener of a file manager, which forwards the diagnostics to the current compilation.
+     */
+    private static final class ForwardingListener implements DiagnosticListener<JavaFileObject> {
+        private volatile DiagnosticListener<? super JavaFileObject> target;
+
+        @Override
+        public void report(Diagnostic<? extends JavaFileObject> diagnostic) {
+            DiagnosticListener<? super JavaFileObject> current = target;
+            if (current != null) {
+                current.report(diagnostic);
+            }
+        }
+    }
+
+    /**
+     * Takes a file manager from the pool, or creates a new one if there are no idle ones.
+     * The diagnostics the file manager reports go to the given listener until the file manager is released.
+     */
+    static StandardJavaFileManager acquire(DiagnosticListener<? super JavaFileObject> listener) {
+        StandardJavaFileManager fileManager = idle.pollFirst();
+        ForwardingListener forwarding;
+        if (fileManager != null) {
+            synchronized (listeners) {
+                forwarding = listeners.get(fileManager);
+            }
+        } else {
+            forwarding = new ForwardingListener();
+            fileManager = ToolProvider.getSystemJavaCompiler().getStandardFileManager(forwarding, null, null);
+            synchronized (listeners) {
+                listeners.put(fileManager, forwarding);
+            }
+        }
+        forwarding.target = listener;
+        return fileManager;
+    }
+
+    /**
+     * Gives the file manager back to the pool. If it cannot be reset, it is closed instead.
+     */
+    static void release(StandardJavaFileManager fileManager) {
+        synchronized (listeners) {
+            listeners.get(fileManager).target = null;
+        }
+        try {
+            fileManager.setLocation(StandardLocation.CLASS_OUTPUT, null);
+            fileManager.setLocation(StandardLocation.CLASS_PATH, null);
+            fileManager.setLocation(StandardLocation.SOURCE_OUTPUT, null);
+            fileManager.flush();
+        } catch (IOException | IllegalArgumentException | IllegalStateException e) {
+            synchronized (listeners) {
+                listeners.remove(fileManager);
+            }
+            try {
+                fileManager.close();
+            } catch (IOException ignore) {
+                // Nothing to be done about it, the file manager is not used anymore anyway.
+            }
+            return;
+        }
+        idle.addFirst(fileManager);
+    }
+}
@@ -0,0 +1,89 @@
+package jvmch;
+
+import javax.tools.*;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.Map;
+
+/**
+ * This is a file manager which keeps the class files produced by the compiler in memory.
+ *
+ * The class files are stored into the given map, with the keys being the JAR entry names
+ * of the classes, such as {@code "pkg/Outer$Inner.class"}.
+ *
+ * @author Maxim Buzdalov
+ */
+class InMemoryFileManager extends ForwardingJavaFileManager<JavaFileManager> {
+    private final Map<String, byte[]> classes;
+
+    InMemoryFileManager(JavaFileManager fileManager, Map<String, byte[]> classes) {
+        super(fileManager);
+        this.classes = classes;
+    }
+
+    @Override
+    public JavaFileObject getJavaFileForOutput(Location location, String className,
+                                               JavaFileObject.Kind kind, FileObject sibling) throws IOException {
+        if (location == StandardLocation.CLASS_OUTPUT && kind == JavaFileObject.Kind.CLASS) {
+            return new ClassFile(className.replace('.', '/') + kind.extension);
+        }
+        return super.getJavaFileForOutput(location, className, kind, sibling);
+    }
+
+    @Override
+    public boolean isSameFile(FileObject a, FileObject b) {
+        return super.isSameFile(unwrap(a), unwrap(b));
+    }
+
+    private static FileObject unwrap(FileObject file) {
+        while (file instanceof RenamedSourceFile) {
+            file = ((RenamedSourceFile) file).getOriginal();
+        }
+        return file;
+    }
+
+    /**
+     * This is a source file which is seen by the compiler as if it were named after the class it declares.
+     * This way, the source files do not need to be copied to files with right names before compilation.
+     */
+    static class RenamedSourceFile extends ForwardingJavaFileObject<JavaFileObject> {
+        private final String simpleName;
+
+        RenamedSourceFile(JavaFileObject original, String className) {
+            super(original);
+            this.simpleName = className.substring(className.lastIndexOf('.') + 1);
+        }
+
+        JavaFileObject getOriginal() {
+            return fileObject;
+        }
+
+        @Override
+        public boolean isNameCompatible(String simpleName, Kind kind) {
+            return kind == Kind.SOURCE && this.simpleName.equals(simpleName);
+        }
+    }
+
+    private class ClassFile extends SimpleJavaFileObject {
+        private final String entryName;
+
+        ClassFile(String entryName) {
+            super(URI.create("mem:///" + entryName), Kind.CLASS);
+            this.entryName = entryName;
+        }
+
+        @Override
+        public OutputStream openOutputStream() {
+            return new ByteArrayOutputStream() {
+                @Override
+                public void close() {
+                    synchronized (classes) {
+                        classes.put(entryName, toByteArray());
+                    }
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package jvmch;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * This is the state of incremental compilation of a set of source files, which is kept in a directory between runs.
+ *
+ * The directory holds the class files of the last successful compilation and a record of every source file
+ * given by its path: the hash of its contents, the name it was compiled under, the top-level classes it declares,
+ * and the other source files it depends on. The dependencies are taken from the constant pools
+ * of the class files, the same way {@code shrink-jar} finds the reachable classes.
+ *
+ * A source file is recompiled if it is new or changed, or if it depends, directly or not, on a source file
+ * which is changed or removed. The constants which javac inlines leave no trace in the constant pools
+ * of the classes using them, so everything is recompiled if a changed or removed source file declared
+ * any constant fields. Everything is recompiled as well when the Java runtime changes or the state is missing.
+ * The record is deleted before any class file is, and written anew only after a successful compilation,
+ * so if a compilation fails, or the process is killed in the middle of it, the next one starts afresh.
+ *
+ * @author Maxim Buzdalov
+ */
+final class IncrementalCompilation {
+    private static final String STATE_FILE = "state.txt";
+    private static final String CLASSES_DIR = "classes";
+    private static final String HEADER = "jvmch-incremental 1";
+    private static final byte[] CONSTANT_VALUE = "ConstantValue".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * This is what is recorded about a single source file.
+     */
+    private static final class Unit {
+        final String path;
+        final String hash;
+        final String className;
+        final List<String> types = new ArrayList<>();
+        final Set<String> dependencies = new TreeSet<>();
+        boolean hasConstants;
+
+        Unit(String path, String hash, String className) {
+            this.path = path;
+            this.hash = hash;
+            this.className = className;
+        }
+    }
+
+    private final File stateDir;
+    private final File classesDir;
+    private final File[] sources;
+    private final String[] hashes;
+    private final Map<String, Unit> previous;
+    private final boolean[] dirty;
+    private final boolean full;
+
+    private IncrementalCompilation(File stateDir, File[] sources, String[] hashes, Map<String, Unit> previous) {
+        this.stateDir = stateDir;
+        this.classesDir = new File(stateDir, CLASSES_DIR);
+        this.sources = sources;
+        this.hashes = hashes;
+        this.previous = previous;
+        this.dirty = new boolean[sources.length];
+
+        Set<String> current = new HashSet<>();
+        for (File source : sources) {
+            current.add(source.getPath());
+        }
+        // The changed and removed source files, whose dependents need to be recompiled.
+        Set<String> invalidated = new HashSet<>();
+        boolean constantsChanged = false;
+        for (Unit unit : previous.values()) {
+            if (!current.contains(unit.path)) {
+                invalidated.add(unit.path);
+                constantsChanged |= unit.hasConstants;
+            }
+        }
+        for (int i = 0; i < sources.length; ++i) {
+            Unit unit = previous.get(sources[i].getPath());
+            if (unit == null || !unit.hash.equals(hashes[i])) {
+                dirty[i] = true;
+                if (unit != null) {
+                    invalidated.add(unit.path);
+                    constantsChanged |= unit.hasConstants;
+                }
+            }
+        }
+        this.full = previous.isEmpty() || constantsChanged || !classesDir.isDirectory();
+        if (full) {
+            Arrays.fill(dirty, true);
+            return;
+        }
+        // The dependents of the invalidated source files are invalidated in turn, until nothing changes.
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 0; i < sources.length; ++i) {
+                if (!dirty[i] && !Collections.disjoint(previous.get(sources[i].getPath()).dependencies, invalidated)) {
+                    dirty[i] = true;
+                    invalidated.add(sources[i].getPath());
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the state kept in the given directory and finds out what needs to be compiled.
+     */
+    static IncrementalCompilation open(File stateDir, File[] sources) throws IOException {
+        String[] hashes = new String[sources.length];
+        for (int i = 0; i < sources.length; ++i) {
+            hashes[i] = hash(Files.readAllBytes(sources[i].toPath()));
+        }
+        return new IncrementalCompilation(stateDir, sources, hashes, readState(new File(stateDir, STATE_FILE)));
+    }
+
+    /**
+     * Returns the directory with the class files, which is both the output and the class path of the compilation.
+     */
+    File getClassesDir() {
+        return classesDir;
+    }
+
+    /**
+     * Returns whether the source file with the given index needs to be compiled.
+     */
+    boolean needsCompilation(int index) {
+        return dirty[index];
+    }
+
+    /**
+     * Returns whether everything is compiled from scratch.
+     */
+    boolean isFull() {
+        return full;
+    }
+
+    /**
+     * Returns the class name the source file with the given index was compiled under the last time,
+     * or {@code null} if it is a new one.
+     */
+    String getPreviousClassName(int index) {
+        Unit unit = previous.get(sources[index].getPath());
+        return unit == null ? null : unit.className;
+    }
+
+    /**
+     * Deletes the class files of the source files which are to be compiled or are removed,
+     * so that only the class files of the up-to-date ones are on the class path.
+     */
+    void prepare() throws IOException {
+        File stateFile = new File(stateDir, STATE_FILE);
+        if (stateFile.exists() && !stateFile.delete()) {
+            throw new IOException("Cannot delete " + stateFile);
+        }
+        if (full) {
+            JavaCompiler.rmrf(stateDir);
+        }
+        if (!classesDir.mkdirs() && !classesDir.isDirectory()) {
+            throw new IOException("Cannot create the directory " + classesDir);
+        }
+        Set<String> kept = new HashSet<>();
+        for (int i = 0; i < sources.length; ++i) {
+            if (!dirty[i]) {
+                kept.add(sources[i].getPath());
+            }
+        }
+        for (Unit unit : previous.values()) {
+            if (!kept.contains(unit.path)) {
+                for (String type : unit.types) {
+                    deleteClasses(type);
+                }
+            }
+        }
+    }
+
+    private void deleteClasses(String type) {
+        File dir = new File(classesDir, type).getParentFile();
+        String simpleName = type.substring(type.lastIndexOf('/') + 1);
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.equals(simpleName + ".class") || name.startsWith(simpleName + "$") && name.endsWith(".class")) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Forgets the state, so that the next compilation is a full one.
+     */
+    void invalidate() {
+        JavaCompiler.rmrf(stateDir);
+    }
+
+    /**
+     * Records the state after a successful compilation. For each source file which has just been compiled,
+     * the class name it was compiled under and the top-level classes it declares, in the internal form, are given.
+     */
+    void save(String[] classNames, Map<Integer, List<String>> compiledTypes, List<String> classFiles) throws IOException {
+        List<Unit> units = new ArrayList<>();
+        Map<String, Unit> owners = new HashMap<>();
+        for (int i = 0; i < sources.length; ++i) {
+            Unit unit = new Unit(sources[i].getPath(), hashes[i], classNames[i]);
+            List<String> types = dirty[i] ? compiledTypes.get(i) : previous.get(unit.path).types;
+            if (types != null) {
+                unit.types.addAll(types);
+            }
+            for (String type : unit.types) {
+                owners.put(type, unit);
+            }
+            units.add(unit);
+        }
+        ClassFileScanner scanner = new ClassFileScanner();
+        for (String classFile : classFiles) {
+            String name = classFile.substring(0, classFile.length() - ".class".length());
+            int dollar = name.indexOf('$', name.lastIndexOf('/') + 1);
+            Unit owner = owners.get(dollar < 0 ? name : name.substring(0, dollar));
+            if (owner == null) {
+                continue;
+            }
+            byte[] contents = Files.readAllBytes(new File(classesDir, classFile).toPath());
+            if (scanner.scan(contents, 0, contents.length)) {
+                owner.hasConstants |= scanner.hasUtf8(CONSTANT_VALUE);
+                scanner.forEachReferencedName(referenced -> {
+                    Unit dependency = owners.get(referenced);
+                    if (dependency != null && dependency != owner) {
+                        owner.dependencies.add(dependency.path);
+                    }
+                });
+            }
+        }
+        writeState(new File(stateDir, STATE_FILE), units);
+    }
+
+    private static String runtime() {
+        return System.getProperty("java.vendor") + " " + System.getProperty("java.runtime.version");
+    }
+
+    private static Map<String, Unit> readState(File file) throws IOException {
+        Map<String, Unit> units = new HashMap<>();
+        if (!file.isFile()) {
+            return units;
+        }
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        if (lines.size() < 2 || !lines.get(0).equals(HEADER) || !lines.get(1).equals("runtime\t" + runtime())) {
+            return units;
+        }
+        Unit unit = null;
+        for (String line : lines.subList(2, lines.size())) {
+            String[] parts = line.split("\t");
+            if (parts[0].equals("unit") && parts.length == 5) {
+                unit = new Unit(parts[1], parts[2], parts[3]);
+                unit.hasConstants = parts[4].equals("constants");
+                units.put(unit.path, unit);
+            } else if (parts[0].equals("type") && parts.length == 2 && unit != null) {
+                unit.types.add(parts[1]);
+            } else if (parts[0].equals("depends") && parts.length == 2 && unit != null) {
+                unit.dependencies.add(parts[1]);
+            } else {
+                // Whatever this is, it cannot be trusted.
+                return new HashMap<>();
+            }
+        }
+        return units;
+    }
+
+    private static void writeState(File file, List<Unit> units) throws IOException {
+        try (PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            writer.println(HEADER);
+            writer.println("runtime\t" + runtime());
+            for (Unit unit : units) {
+                writer.println("unit\t" + unit.path + "\t" + unit.hash + "\t" + unit.className
+                        + "\t" + (unit.hasConstants ? "constants" : "none"));
+                for (String type : unit.types) {
+                    writer.println("type\t" + type);
+                }
+                for (String dependency : unit.dependencies) {
+                    writer.println("depends\t" + dependency);
+                }
+            }
+        }
+    }
+
+    private static String hash(byte[] contents) throws IOException {
+        try {
+            StringBuilder rv = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(contents)) {
+                rv.append(Character.forDigit((b >>> 4) & 15, 16)).append(Character.forDigit(b & 15, 16));
+            }
+            return rv.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+}
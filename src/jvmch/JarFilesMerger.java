@@ -1,51 +1,199 @@
 package jvmch;
 
 import java.io.*;
+import java.util.*;
 import java.util.jar.*;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
 
 /**
  * Created by Niyaz Nigmatullin on 11.04.17.
  * Ported to Java by Maxim Buzdalov on 03.09.17.
  */
 public class JarFilesMerger extends Module {
+    private static final String COMPRESSION = "--compression";
+
+    private static class Options {
+        File resultFile;
+        List<File> sources = new ArrayList<>();
+        Compression compression = null;
+
+        static Options parse(String[] args, int argumentOffset, PrintStream err) {
+            Options rv = new Options();
+            for (int i = 0; i < args.length; ++i) {
+                if (args[i].equals(COMPRESSION)) {
+                    if (++i == args.length || (rv.compression = Compression.parse(args[i])) == null) {
+                        err.println("Error: at command line argument no. " + (argumentOffset + i + 1) + ": "
+                                + COMPRESSION + " requires 'store' or a level from 0 to 9.");
+                        return null;
+                    }
+                } else if (rv.resultFile == null) {
+                    rv.resultFile = new File(args[i]);
+                } else {
+                    rv.sources.add(new File(args[i]));
+                }
+            }
+            return rv.sources.size() >= 2 ? rv : null;
+        }
+    }
+
     @Override
-    public boolean run(String[] args) {
-        File resultFile = new File(args[0]);
-        File[] files = new File[args.length - 1];
-        for (int i = 0; i < files.length; ++i) {
-            files[i] = new File(args[i + 1]);
+    @SuppressWarnings("try")
+    public boolean run(String[] args, Context context) {
+        Options options = Options.parse(args, 0, context.getErr());
+        if (options == null) {
+            return false;
         }
-        try (FileOutputStream inputStream = new FileOutputStream(resultFile);
-             JarOutputStream jos = new JarOutputStream(inputStream)) {
-            for (File file : files) {
-                try (FileInputStream outputStream = new FileInputStream(file);
-                     JarInputStream jis = new JarInputStream(outputStream)) {
-                    byte[] buffer = new byte[8192];
-                    JarEntry entry;
-                    while ((entry = jis.getNextJarEntry()) != null) {
-                        jos.putNextEntry(entry);
-                        int sz;
-                        while ((sz = jis.read(buffer)) > 0) {
-                            jos.write(buffer, 0, sz);
-                        }
+        File resultFile = options.resultFile;
+        File[] files = options.sources.toArray(new File[options.sources.size()]);
+        try {
+            try {
+                List<ZipDirectory> directories = new ArrayList<>(files.length);
+                try (Metrics.Phase phase = context.getMetrics().phase("read")) {
+                    for (File file : files) {
+                        directories.add(context.openZip(file));
                     }
                 }
+                merge(resultFile, files, directories, options.compression, context);
+            } catch (ZipException e) {
+                // Something we cannot copy raw, such as ZIP64; let java.util.zip deal with it.
+                mergeByRecompressing(resultFile, files, options.compression, context);
             }
             return true;
         } catch (IOException e) {
-            e.printStackTrace();
+            e.printStackTrace(context.getErr());
             return false;
         }
     }
 
+    /**
+     * Merges the given files, copying the entries raw unless a compression is given, in which case
+     * the entries are recompressed in parallel when there are enough of them.
+     */
+    private void merge(File resultFile, File[] files, List<ZipDirectory> directories,
+                       Compression compression, Context context) throws IOException {
+        // The first occurrence of every name wins, as it would on a class path.
+        Map<String, ZipDirectory.Entry> entries = new HashMap<>();
+        for (ZipDirectory directory : directories) {
+            for (ZipDirectory.Entry entry : directory.getEntries()) {
+                if (!entry.name.equalsIgnoreCase(JarFile.MANIFEST_NAME) && !entries.containsKey(entry.name)) {
+                    entries.put(entry.name, entry);
+                }
+            }
+        }
+        Metrics metrics = context.getMetrics();
+        context.writeZip(resultFile, writer -> {
+            for (int i = 0; i < files.length; ++i) {
+                ZipDirectory directory = directories.get(i);
+                try (Metrics.Phase phase = metrics.phase("copy " + files[i].getPath())) {
+                    if (compression == null) {
+                        for (ZipDirectory.Entry entry : directory.getEntries()) {
+                            if (entries.get(entry.name) == entry) {
+                                writer.writeRaw(entry, directory.getRawData(entry));
+                                phase.addBytes(entry.compressedSize);
+                            }
+                        }
+                    } else {
+                        List<ZipWriter.Preparation> preparations = new ArrayList<>();
+                        for (ZipDirectory.Entry entry : directory.getEntries()) {
+                            if (entries.get(entry.name) == entry) {
+                                preparations.add(() -> recompress(directory, entry, compression));
+                                phase.addBytes(entry.size);
+                            }
+                        }
+                        writer.writeAll(preparations);
+                    }
+                }
+            }
+        });
+    }
+
+    private static ZipWriter.PreparedEntry recompress(ZipDirectory directory, ZipDirectory.Entry entry,
+                                                      Compression compression) throws IOException {
+        byte[] contents = directory.getBytes(entry);
+        return ZipWriter.prepare(entry.name, contents, 0, contents.length, compression, entry.dosTime);
+    }
+
+    private void mergeByRecompressing(File resultFile, File[] files, Compression compression,
+                                      Context context) throws IOException {
+        Set<String> names = new HashSet<>();
+        // The result replaces the target only when it is complete, as the target may also be a source.
+        context.replace(resultFile, output -> {
+            try (JarOutputStream jos = new JarOutputStream(output)) {
+                if (compression != null && !compression.isStored()) {
+                    jos.setLevel(compression.getLevel());
+                }
+                for (File file : files) {
+                    try (Metrics.Phase phase = context.getMetrics().phase("copy " + file.getPath());
+                         InputStream input = context.openInput(file);
+                         JarInputStream jis = new JarInputStream(input)) {
+                        byte[] buffer = new byte[8192];
+                        JarEntry entry;
+                        while ((entry = jis.getNextJarEntry()) != null) {
+                            if (!names.add(entry.getName())) {
+                                continue;
+                            }
+                            if (compression == null) {
+                                jos.putNextEntry(entry);
+                                int sz;
+                                while ((sz = jis.read(buffer)) > 0) {
+                                    jos.write(buffer, 0, sz);
+                                    phase.addBytes(sz);
+                                }
+                            } else {
+                                ByteArrayOutputStream contents = new ByteArrayOutputStream();
+                                int sz;
+                                while ((sz = jis.read(buffer)) > 0) {
+                                    contents.write(buffer, 0, sz);
+                                }
+                                // The entry is recreated, as the compressed size of the original one would not match.
+                                JarEntry newEntry = new JarEntry(entry.getName());
+                                newEntry.setTime(entry.getTime());
+                                if (compression.isStored()) {
+                                    CRC32 crc = new CRC32();
+                                    crc.update(contents.toByteArray());
+                                    newEntry.setMethod(ZipEntry.STORED);
+                                    newEntry.setSize(contents.size());
+                                    newEntry.setCompressedSize(contents.size());
+                                    newEntry.setCrc(crc.getValue());
+                                }
+                                jos.putNextEntry(newEntry);
+                                contents.writeTo(jos);
+                                phase.addBytes(contents.size());
+                            }
+                        }
+                    }
+                }
+            }
+        });
+    }
+
     @Override
     public String getUsage() {
         return "merges several JAR files, manifest file isn't copied.\n"
-                + "            The arguments are: <target-jar-name> <source-jar-name-1> [<source-jar-name-2> [...]]";
+                + "            The arguments are: <target-jar-name> <source-jar-name-1> [<source-jar-name-2> [...]]\n"
+                + "                [" + COMPRESSION + " store|<level>]\n"
+                + "            The entries are copied without recompression, unless " + COMPRESSION + " is given,\n"
+                + "            in which case they are stored or deflated with the given level from 0 to 9 in parallel.\n"
+                + "            If several source JAR files contain entries with the same name,\n"
+                + "            the one from the earliest source is used.";
+    }
+
+    @Override
+    public List<File> getInputFiles(String[] args) {
+        Options options = Options.parse(args, 0, new PrintStream(new ByteArrayOutputStream()));
+        return options == null ? null : options.sources;
+    }
+
+    @Override
+    public List<File> getOutputFiles(String[] args) {
+        Options options = Options.parse(args, 0, new PrintStream(new ByteArrayOutputStream()));
+        return options == null ? null : Collections.singletonList(options.resultFile);
     }
 
     @Override
-    public boolean checkArgs(String[] args, int argumentOffset) {
-        return args.length >= 3;
+    public boolean checkArgs(String[] args, int argumentOffset, PrintStream err) {
+        return Options.parse(args, argumentOffset, err) != null;
     }
 }
@@ -0,0 +1,246 @@
+package jvmch;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipException;
+
+/**
+ * This is the module which removes the classes of a JAR file which cannot be reached from its main class.
+ *
+ * The classes are reached through the UTF-8 entries of their constant pools: every such entry which is
+ * the name of a class in the JAR file, either in the internal form or with dots, or which contains
+ * a descriptor of such a class, makes that class reachable. This is conservative enough to follow
+ * class, field and method references, signatures, annotations, Kotlin metadata and
+ * {@code Class.forName} with a constant argument, but not the class names computed at run time,
+ * which can be given by {@code --keep}. The implementations listed in {@code META-INF/services}
+ * are reachable too. All the entries which are not classes, as well as everything under {@code META-INF},
+ * are kept, since there is no telling which resources are needed.
+ *
+ * @author Maxim Buzdalov
+ */
+public class JarShrinker extends Module {
+    private static final String KEEP = "--keep";
+    private static final String VERBOSE = "--verbose";
+    private static final String CLASS_SUFFIX = ".class";
+    private static final String META_INF = "META-INF/";
+    private static final String SERVICES = "META-INF/services/";
+    private static final String MODULE_INFO = "module-info.class";
+
+    private static class Options {
+        File sourceFile;
+        File targetFile;
+        List<String> keep = new ArrayList<>();
+        boolean verbose = false;
+
+        static Options parse(String[] args, int argumentOffset, PrintStream err) {
+            if (args.length < 2) {
+                err.println("Error: expected the arguments for the command at index "
+                        + (argumentOffset + 1) + " to start with the source and target JAR file names.");
+                return null;
+            }
+            Options rv = new Options();
+            rv.sourceFile = new File(args[0]);
+            rv.targetFile = new File(args[1]);
+            for (int i = 2; i < args.length; ++i) {
+                switch (args[i]) {
+                    case KEEP:
+                        if (++i == args.length) {
+                            err.println("Error: at command line argument no. " + (argumentOffset + i + 1) + ": "
+                                    + KEEP + " requires a class name.");
+                            return null;
+                        }
+                        rv.keep.add(args[i]);
+                        break;
+                    case VERBOSE:
+                        rv.verbose = true;
+                        break;
+                    default:
+                        err.println("Error: at command line argument no. " + (argumentOffset + i + 1) + ": "
+                                + "unknown option '" + args[i] + "'.");
+                        return null;
+                }
+            }
+            return rv;
+        }
+    }
+
+    @Override
+    public boolean checkArgs(String[] args, int argumentOffset, PrintStream err) {
+        return Options.parse(args, argumentOffset, err) != null;
+    }
+
+    @Override
+    public List<File> getInputFiles(String[] args) {
+        return Collections.singletonList(new File(args[0]));
+    }
+
+    @Override
+    public List<File> getOutputFiles(String[] args) {
+        return Collections.singletonList(new File(args[1]));
+    }
+
+    @Override
+    public String getUsage() {
+        return "removes the classes of a JAR file with a Main-Class attribute which cannot be reached from the main class.\n"
+                + "            The arguments are: <source-jar-name> <target-jar-name> [" + KEEP + " <class name>]* [" + VERBOSE + "], where:\n"
+                + "                " + KEEP + " means to keep the given class and everything reachable from it,\n"
+                + "                    which is needed for the classes which are loaded by names computed at run time;\n"
+                + "                " + VERBOSE + " enables printing how many classes are kept to the standard output.\n"
+                + "            The resources, as well as everything under " + META_INF + ", are kept as they are.";
+    }
+
+    @Override
+    @SuppressWarnings("try")
+    public boolean run(String[] args, Context context) {
+        PrintStream err = context.getErr();
+        Options options = Options.parse(args, 0, err);
+        if (options == null) {
+            return false;
+        }
+        try {
+            Metrics metrics = context.getMetrics();
+            ZipDirectory directory;
+            try (Metrics.Phase phase = metrics.phase("read")) {
+                directory = context.openZip(options.sourceFile);
+            } catch (ZipException e) {
+                err.println("Error: " + options.sourceFile + " cannot be shrunk: " + e.getMessage() + ".");
+                return false;
+            }
+
+            Map<String, ZipDirectory.Entry> classes = new HashMap<>();
+            Manifest manifest = null;
+            for (ZipDirectory.Entry entry : directory.getEntries()) {
+                if (entry.name.equalsIgnoreCase(JarFile.MANIFEST_NAME)) {
+                    manifest = new Manifest(new ByteArrayInputStream(directory.getBytes(entry)));
+                } else if (isClass(entry.name)) {
+                    classes.put(entry.name.substring(0, entry.name.length() - CLASS_SUFFIX.length()), entry);
+                }
+            }
+            String mainClass = manifest == null ? null : manifest.getMainAttributes().getValue(Attributes.Name.MAIN_CLASS);
+            if (mainClass == null) {
+                err.println("Error: " + options.sourceFile + " has no Main-Class attribute, "
+                        + "please annotate it with annotate-jar-with-main-class-attribute first.");
+                return false;
+            }
+
+            Reachability reachability = new Reachability(classes);
+            try (Metrics.Phase phase = metrics.phase("scan")) {
+                reachability.reachName(mainClass);
+                for (String name : options.keep) {
+                    reachability.reachName(name);
+                }
+                for (ZipDirectory.Entry entry : directory.getEntries()) {
+                    if (entry.name.startsWith(SERVICES) && !entry.isDirectory()) {
+                        reachability.reachName(entry.name.substring(SERVICES.length()));
+                        for (String provider : readServiceProviders(directory.getBytes(entry))) {
+                            reachability.reachName(provider);
+                        }
+                    }
+                }
+                phase.addBytes(reachability.run(directory));
+            }
+            if (!reachability.isReached(mainClass)) {
+                err.println("Error: the main class " + mainClass + " is not found in " + options.sourceFile + ".");
+                return false;
+            }
+
+            try (Metrics.Phase phase = metrics.phase("write")) {
+                context.writeZip(options.targetFile, writer -> {
+                    for (ZipDirectory.Entry entry : directory.getEntries()) {
+                        if (!isClass(entry.name) || reachability.isReachedEntry(entry)) {
+                            writer.writeRaw(entry, directory.getRawData(entry));
+                            phase.addBytes(entry.compressedSize);
+                        }
+                    }
+                });
+            }
+            if (options.verbose) {
+                context.getOut().println("Kept " + reachability.getReachedCount() + " of " + classes.size() + " classes");
+            }
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace(err);
+            return false;
+        }
+    }
+
+    /**
+     * Returns whether the entry with the given name is a class which may be removed.
+     */
+    private static boolean isClass(String name) {
+        return name.endsWith(CLASS_SUFFIX) && !name.startsWith(META_INF) && !name.equals(MODULE_INFO);
+    }
+
+    private static List<String> readServiceProviders(byte[] contents) {
+        List<String> rv = new ArrayList<>();
+        for (String line : new String(contents, StandardCharsets.UTF_8).split("\n")) {
+            int comment = line.indexOf('#');
+            String name = (comment >= 0 ? line.substring(0, comment) : line).trim();
+            if (!name.isEmpty()) {
+                rv.add(name);
+            }
+        }
+        return rv;
+    }
+
+    /**
+     * This is the search for the classes reachable from the given ones.
+     */
+    private static class Reachability {
+        private final Map<String, ZipDirectory.Entry> classes;
+        private final Set<ZipDirectory.Entry> reached = new HashSet<>();
+        private final ArrayDeque<ZipDirectory.Entry> queue = new ArrayDeque<>();
+
+        Reachability(Map<String, ZipDirectory.Entry> classes) {
+            this.classes = classes;
+        }
+
+        /**
+         * Marks the class with the given name, either in the internal form or with dots, as reachable,
+         * if there is such a class.
+         */
+        void reachName(String name) {
+            ZipDirectory.Entry entry = classes.get(name.replace('.', '/'));
+            if (entry != null && reached.add(entry)) {
+                queue.add(entry);
+            }
+        }
+
+        /**
+         * Finds all the classes reachable from the ones already reached. Returns the total size of the classes scanned.
+         */
+        long run(ZipDirectory directory) throws IOException {
+            long bytes = 0;
+            ClassFileScanner scanner = new ClassFileScanner();
+            try (ZipDirectory.EntryReader reader = new ZipDirectory.EntryReader()) {
+                while (!queue.isEmpty()) {
+                    ZipDirectory.Entry entry = queue.removeFirst();
+                    byte[] contents = reader.read(directory, entry);
+                    bytes += entry.size;
+                    // Whatever cannot be scanned is kept, but nothing is reachable from it.
+                    if (scanner.scan(contents, 0, (int) entry.size)) {
+                        scanner.forEachReferencedName(this::reachName);
+                    }
+                }
+            }
+            return bytes;
+        }
+
+        boolean isReached(String name) {
+            ZipDirectory.Entry entry = classes.get(name.replace('.', '/'));
+            return entry != null && reached.contains(entry);
+        }
+
+        boolean isReachedEntry(ZipDirectory.Entry entry) {
+            return reached.contains(entry);
+        }
+
+        int getReachedCount() {
+            return reached.size();
+        }
+    }
+}
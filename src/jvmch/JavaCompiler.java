@@ -1,9 +1,22 @@
 package jvmch;
 
+import com.sun.source.tree.ClassTree;
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.tree.Tree;
+import com.sun.source.util.JavacTask;
+import com.sun.source.util.TaskEvent;
+import com.sun.source.util.TaskListener;
+
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
 import javax.tools.ToolProvider;
 import java.io.*;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
 import java.util.*;
-import java.util.jar.*;
+import java.util.concurrent.*;
 
 /**
  * Created by Niyaz Nigmatullin on 11.04.17.
@@ -12,31 +25,300 @@ import java.util.jar.*;
 public class JavaCompiler extends Module {
     private static final int COPY_BUFFER_SIZE = 0x10000;
     private static final Random rng = new Random(239L);
+    private static final ExecutorService javacThreads = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "jvmch javac");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final String IN_MEMORY = "--in-memory";
+    private static final String CACHE = "--cache";
+    private static final String CACHE_SIZE_LIMIT = "--cache-size-limit";
+    private static final String COMPRESSION = "--compression";
+    private static final String INCREMENTAL = "--incremental";
+    private static final String DEADLINE = "--deadline";
+    private static final String DIAGNOSTICS_FORMAT = "--diagnostics-format";
+    private static final String MAX_DIAGNOSTICS = "--max-diagnostics";
+    private static final String MAX_DIAGNOSTIC_BYTES = "--max-diagnostic-bytes";
+    private static final String MAX_ERRORS = "--max-errors";
+
+    private static final long DEFAULT_CACHE_SIZE_LIMIT_MEGABYTES = 1024;
+
+    private static class Options {
+        File tempDir;
+        File jarFile;
+        List<File> sources = new ArrayList<>();
+        boolean inMemory = false;
+        File cacheDir = null;
+        long cacheSizeLimitMegabytes = DEFAULT_CACHE_SIZE_LIMIT_MEGABYTES;
+        Compression compression = Compression.DEFAULT;
+        File incrementalDir = null;
+        long deadlineMillis = 0;
+        String diagnosticsFormat = null;
+        long maxDiagnostics = 0;
+        long maxDiagnosticBytes = 0;
+        long maxErrors = 0;
+
+        /**
+         * Returns the printer of the diagnostics of javac, or {@code null} if javac should print them itself.
+         */
+        DiagnosticPrinter createDiagnosticPrinter(PrintStream err) {
+            if (diagnosticsFormat == null && maxDiagnostics == 0 && maxDiagnosticBytes == 0 && maxErrors == 0) {
+                return null;
+            }
+            return new DiagnosticPrinter(err, DiagnosticPrinter.COMPACT.equals(diagnosticsFormat),
+                    (int) Math.min(maxDiagnostics, Integer.MAX_VALUE), maxDiagnosticBytes,
+                    (int) Math.min(maxErrors, Integer.MAX_VALUE));
+        }
+
+        /**
+         * Returns the options which affect the contents of the resulting JAR file.
+         */
+        List<String> getEffectiveOptions() {
+            List<String> rv = new ArrayList<>();
+            if (inMemory) {
+                rv.add(IN_MEMORY);
+            }
+            if (compression != Compression.DEFAULT) {
+                rv.add(COMPRESSION);
+                rv.add(compression.toString());
+            }
+            return rv;
+        }
+
+        static Options parse(String[] args, int argumentOffset, PrintStream err) {
+            if (args.length < 2) {
+                return null;
+            }
+            Options rv = new Options();
+            rv.tempDir = new File(args[0]);
+            rv.jarFile = new File(args[1]);
+            for (int i = 2; i < args.length; ++i) {
+                switch (args[i]) {
+                    case IN_MEMORY:
+                        rv.inMemory = true;
+                        break;
+                    case CACHE:
+                        if (++i == args.length) {
+                            return error(err, argumentOffset + i + 1, CACHE + " requires a directory");
+                        }
+                        rv.cacheDir = new File(args[i]);
+                        break;
+                    case CACHE_SIZE_LIMIT:
+                        if (++i == args.length) {
+                            return error(err, argumentOffset + i + 1, CACHE_SIZE_LIMIT + " requires a number of megabytes");
+                        }
+                        try {
+                            rv.cacheSizeLimitMegabytes = Long.parseLong(args[i]);
+                        } catch (NumberFormatException e) {
+                            rv.cacheSizeLimitMegabytes = -1;
+                        }
+                        if (rv.cacheSizeLimitMegabytes < 0) {
+                            return error(err, argumentOffset + i + 1, CACHE_SIZE_LIMIT + " requires a non-negative number of megabytes");
+                        }
+                        break;
+                    case COMPRESSION:
+                        if (++i == args.length || (rv.compression = Compression.parse(args[i])) == null) {
+                            return error(err, argumentOffset + i + 1, COMPRESSION + " requires 'store' or a level from 0 to 9");
+                        }
+                        break;
+                    case INCREMENTAL:
+                        if (++i == args.length) {
+                            return error(err, argumentOffset + i + 1, INCREMENTAL + " requires a directory");
+                        }
+                        rv.incrementalDir = new File(args[i]);
+                        break;
+                    case DEADLINE:
+                        if (++i == args.length) {
+                            return error(err, argumentOffset + i + 1, DEADLINE + " requires a number of seconds");
+                        }
+                        try {
+                            rv.deadlineMillis = new BigDecimal(args[i]).movePointRight(3).longValue();
+                        } catch (NumberFormatException e) {
+                            rv.deadlineMillis = 0;
+                        }
+                        if (rv.deadlineMillis <= 0) {
+                            return error(err, argumentOffset + i + 1, DEADLINE + " requires a positive number of seconds");
+                        }
+                        break;
+                    case DIAGNOSTICS_FORMAT:
+                        if (++i == args.length
+                                || !args[i].equals(DiagnosticPrinter.TEXT) && !args[i].equals(DiagnosticPrinter.COMPACT)) {
+                            return error(err, argumentOffset + i + 1, DIAGNOSTICS_FORMAT + " requires '"
+                                    + DiagnosticPrinter.TEXT + "' or '" + DiagnosticPrinter.COMPACT + "'");
+                        }
+                        rv.diagnosticsFormat = args[i];
+                        break;
+                    case MAX_DIAGNOSTICS:
+                    case MAX_DIAGNOSTIC_BYTES:
+                    case MAX_ERRORS:
+                        String option = args[i];
+                        long limit = ++i == args.length ? -1 : parsePositive(args[i]);
+                        if (limit <= 0) {
+                            return error(err, argumentOffset + i + 1, option + " requires a positive number");
+                        }
+                        if (option.equals(MAX_DIAGNOSTICS)) {
+                            rv.maxDiagnostics = limit;
+                        } else if (option.equals(MAX_DIAGNOSTIC_BYTES)) {
+                            rv.maxDiagnosticBytes = limit;
+                        } else {
+                            rv.maxErrors = limit;
+                        }
+                        break;
+                    default:
+                        rv.sources.add(new File(args[i]));
+                }
+            }
+            if (rv.inMemory && rv.incrementalDir != null) {
+                return error(err, argumentOffset + 1, IN_MEMORY + " and " + INCREMENTAL + " cannot be used together");
+            }
+            return rv;
+        }
+
+        private static long parsePositive(String value) {
+            try {
+                return Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+
+        private static Options error(PrintStream err, int index, String message) {
+            err.println("Error: at command line argument no. " + index + ": " + message + ".");
+            return null;
+        }
+    }
 
     @Override
-    public boolean checkArgs(String[] args, int argumentOffset) {
-        return args.length >= 2;
+    public boolean checkArgs(String[] args, int argumentOffset, PrintStream err) {
+        return Options.parse(args, argumentOffset, err) != null;
     }
 
     @Override
-    public boolean run(String[] args) {
-        File tempDir = new File(args[0]);
-        File jarFile = new File(args[1]);
-        File[] sourceFiles = new File[args.length - 2];
-        for (int i = 0; i < sourceFiles.length; ++i) {
-            sourceFiles[i] = new File(args[i + 2]);
-        }
-        int exitCode = compile(tempDir, jarFile, sourceFiles);
+    @SuppressWarnings("try")
+    public boolean run(String[] args, Context context) {
+        PrintStream out = context.getOut();
+        PrintStream err = context.getErr();
+        Options options = Options.parse(args, 0, err);
+        if (options == null) {
+            return false;
+        }
+        File[] sources = options.sources.toArray(new File[options.sources.size()]);
+        CompilationCache cache = null;
+        String cacheKey = null;
+        if (options.cacheDir != null) {
+            cache = new CompilationCache(options.cacheDir, options.cacheSizeLimitMegabytes << 20);
+            try (Metrics.Phase phase = context.getMetrics().phase("cache-lookup")) {
+                cacheKey = cache.computeKey(options.getEffectiveOptions(), sources);
+                if (cache.fetch(cacheKey, options.jarFile, context)) {
+                    return true;
+                }
+            } catch (IOException e) {
+                e.printStackTrace(err);
+                return false;
+            }
+        }
+        AdmissionController.Ticket ticket;
+        try (Metrics.Phase phase = context.getMetrics().phase("admission")) {
+            ticket = context.getAdmission().admit(totalLength(sources));
+            if (ticket == null) {
+                err.println("Error: the compilation is rejected, as "
+                        + context.getAdmission().getQueueDepth() + " compilations are already waiting for memory.");
+                return false;
+            }
+            phase.addBytes(ticket.getEstimate());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            e.printStackTrace(err);
+            return false;
+        }
+        int exitCode;
+        Deadline deadline = options.deadlineMillis == 0 ? null : new Deadline(options.deadlineMillis);
+        long startAllocated = Metrics.allocatedBytes();
+        try {
+            DiagnosticPrinter diagnostics = options.createDiagnosticPrinter(err);
+            exitCode = options.inMemory
+                    ? compileInMemory(options.jarFile, sources, options.compression, deadline, diagnostics, context)
+                    : compile(options.tempDir, options.jarFile, sources, options.compression, options.incrementalDir,
+                              deadline, diagnostics, context);
+        } finally {
+            long allocated = Metrics.allocatedBytesSince(startAllocated);
+            if (deadline == null) {
+                ticket.release(allocated);
+            } else {
+                // The heap stays reserved while the abandoned javac is still running.
+                deadline.whenJavacFinished(() -> {
+                    long javacAllocated = deadline.getJavacAllocatedBytes();
+                    ticket.release(allocated < 0 || javacAllocated < 0 ? -1 : allocated + javacAllocated);
+                });
+            }
+        }
+        if (exitCode == Main.EXIT_DEADLINE_EXCEEDED) {
+            context.reportDeadlineExceeded(deadline);
+            err.println("Error: the compilation has been cancelled, as it has not finished in "
+                    + BigDecimal.valueOf(options.deadlineMillis, 3).stripTrailingZeros().toPlainString() + " seconds.");
+            return false;
+        }
+        if (exitCode == 0 && cache != null) {
+            try (Metrics.Phase phase = context.getMetrics().phase("cache-store")) {
+                cache.store(cacheKey, options.jarFile, context);
+            } catch (IOException e) {
+                // The compilation has succeeded anyway, so we just report the problem with the cache.
+                e.printStackTrace(err);
+            }
+        }
         return exitCode == 0;
     }
 
+    @Override
+    public List<File> getInputFiles(String[] args) {
+        Options options = Options.parse(args, 0, new PrintStream(new ByteArrayOutputStream()));
+        return options == null ? null : options.sources;
+    }
+
+    @Override
+    public List<File> getOutputFiles(String[] args) {
+        Options options = Options.parse(args, 0, new PrintStream(new ByteArrayOutputStream()));
+        if (options == null) {
+            return null;
+        }
+        return options.incrementalDir == null
+                ? Arrays.asList(options.jarFile, options.tempDir)
+                : Arrays.asList(options.jarFile, options.tempDir, options.incrementalDir);
+    }
+
     @Override
     public String getUsage() {
         return "compiles Java source files given.\n"
-                + "            The arguments are: <temporary directory> <resulting jar file> <source files>";
+                + "            The arguments are: <temporary directory> <resulting jar file> [" + IN_MEMORY + "]\n"
+                + "                [" + CACHE + " <directory> [" + CACHE_SIZE_LIMIT + " <megabytes>]]\n"
+                + "                [" + COMPRESSION + " store|<level>] [" + INCREMENTAL + " <directory>]\n"
+                + "                [" + DEADLINE + " <seconds>] [" + DIAGNOSTICS_FORMAT + " " + DiagnosticPrinter.TEXT + "|" + DiagnosticPrinter.COMPACT + "]\n"
+                + "                [" + MAX_DIAGNOSTICS + " <count>] [" + MAX_DIAGNOSTIC_BYTES + " <bytes>] [" + MAX_ERRORS + " <count>]\n"
+                + "                <source files>, where:\n"
+                + "                " + IN_MEMORY + " means to keep the sources and the classes in memory,\n"
+                + "                    so that the temporary directory is not used at all;\n"
+                + "                " + CACHE + " means to reuse the resulting JAR files of earlier compilations\n"
+                + "                    of the same sources, which are kept in the given directory;\n"
+                + "                " + CACHE_SIZE_LIMIT + " sets the size limit of the cache, "
+                + DEFAULT_CACHE_SIZE_LIMIT_MEGABYTES + " megabytes by default;\n"
+                + "                " + COMPRESSION + " sets how the classes are compressed in the resulting JAR file:\n"
+                + "                    'store' means no compression, which is the fastest both to write and to load,\n"
+                + "                    otherwise it is the deflate level from 0 to 9;\n"
+                + "                " + INCREMENTAL + " means to keep the classes and the dependencies between the sources\n"
+                + "                    in the given directory, so that the next compilation with the same directory\n"
+                + "                    recompiles only the changed sources and the ones depending on them;\n"
+                + "                " + DEADLINE + " means to cancel the compilation if it has not finished in the given time,\n"
+                + "                    which may be fractional, in which case the exit code is " + Main.EXIT_DEADLINE_EXCEEDED + ";\n"
+                + "                " + DIAGNOSTICS_FORMAT + " means to print the diagnostics of javac as they come, without the source lines,\n"
+                + "                    either as text or as lines of tab-separated fields: 'diagnostic', the kind, the file,\n"
+                + "                    the line, the column, the code and the message; this is implied by the limits below;\n"
+                + "                " + MAX_DIAGNOSTICS + " and " + MAX_DIAGNOSTIC_BYTES + " limit how many diagnostics are printed,\n"
+                + "                    and how many bytes they may take, the rest are only counted;\n"
+                + "                " + MAX_ERRORS + " means to stop javac as soon as it reports the given number of errors.";
     }
 
-    private void rmrf(File file) {
+    static void rmrf(File file) {
         if (file.isDirectory()) {
             File[] files = file.listFiles();
             if (files != null) {
@@ -48,50 +330,341 @@ public class JavaCompiler extends Module {
         file.delete();
     }
 
-    private int compile(File tempDir, File file, File[] sources) {
+    @SuppressWarnings("try")
+    private int compile(File tempDir, File file, File[] sources, Compression compression, File incrementalDir,
+                        Deadline deadline, DiagnosticPrinter diagnostics, Context context) {
+        IncrementalCompilation incremental = null;
+        boolean saved = false;
         try {
-            int exitCode = sources.length == 0 ? 0 : compile(tempDir, copyFiles(tempDir, sources));
-            if (exitCode != 0) {
-                return exitCode;
+            Metrics metrics = context.getMetrics();
+            File classesDir = tempDir;
+            if (incrementalDir != null) {
+                try (Metrics.Phase phase = metrics.phase("incremental-state")) {
+                    incremental = IncrementalCompilation.open(incrementalDir, sources);
+                    incremental.prepare();
+                    phase.addBytes(totalLength(sources));
+                }
+                classesDir = incremental.getClassesDir();
+            }
+            String[] classNames = new String[sources.length];
+            Map<Integer, List<String>> compiledTypes = new HashMap<>();
+            if (sources.length != 0) {
+                classNames = getClassNames(sources, metrics);
+                List<Integer> selected = new ArrayList<>();
+                for (int i = 0; i < sources.length; ++i) {
+                    if (incremental == null || incremental.needsCompilation(i)) {
+                        selected.add(i);
+                    } else {
+                        classNames[i] = incremental.getPreviousClassName(i);
+                    }
+                }
+                if (!selected.isEmpty()) {
+                    File[] selectedSources = new File[selected.size()];
+                    String[] selectedNames = new String[selected.size()];
+                    for (int i = 0; i < selectedSources.length; ++i) {
+                        selectedSources[i] = sources[selected.get(i)];
+                        selectedNames[i] = classNames[selected.get(i)];
+                    }
+                    File[] copies;
+                    try (Metrics.Phase phase = metrics.phase("copy-sources")) {
+                        copies = copyFiles(tempDir, selectedSources, selectedNames);
+                        phase.addBytes(totalLength(copies));
+                    }
+                    int exitCode;
+                    Map<Integer, List<String>> types = incremental == null ? null : new HashMap<>();
+                    try (Metrics.Phase phase = metrics.phase("javac")) {
+                        exitCode = compile(classesDir, incremental != null, copies, types, deadline, diagnostics,
+                                context.getErr());
+                        phase.addBytes(totalLength(copies));
+                    }
+                    if (exitCode != 0) {
+                        if (exitCode == Main.EXIT_DEADLINE_EXCEEDED) {
+                            // The worker should be ready for the next compilation, not for looking into this one,
+                            // but not before the abandoned javac stops writing there.
+                            deadline.whenJavacFinished(() -> WorkDirectories.discard(tempDir));
+                        }
+                        return exitCode;
+                    }
+                    if (types != null) {
+                        for (Map.Entry<Integer, List<String>> entry : types.entrySet()) {
+                            compiledTypes.put(selected.get(entry.getKey()), entry.getValue());
+                        }
+                    }
+                }
             }
             List<String> classes = new ArrayList<>();
-            findFiles(tempDir, "", ".class", classes);
-            createJar(file, tempDir, classes.toArray(new String[classes.size()]));
-            rmrf(tempDir);
+            try (Metrics.Phase phase = metrics.phase("find-classes")) {
+                findFiles(classesDir, "", ".class", classes);
+            }
+            try (Metrics.Phase phase = metrics.phase("create-jar")) {
+                phase.addBytes(createJar(file, classesDir, classes.toArray(new String[classes.size()]), compression, context));
+            }
+            if (incremental != null) {
+                try (Metrics.Phase phase = metrics.phase("incremental-state")) {
+                    incremental.save(classNames, compiledTypes, classes);
+                }
+                saved = true;
+            }
+            try (Metrics.Phase phase = metrics.phase("cleanup")) {
+                WorkDirectories.discard(tempDir);
+            }
+            return 0;
+        } catch (IOException e) {
+            e.printStackTrace(context.getErr());
+            return 100;
+        } finally {
+            // Whatever has gone wrong, the class files no longer match the state, so the next compilation is a full one.
+            if (incremental != null && !saved) {
+                if (deadline == null) {
+                    incremental.invalidate();
+                } else {
+                    deadline.whenJavacFinished(incremental::invalidate);
+                }
+            }
+        }
+    }
+
+    /**
+     * Compiles the given sources into the given directory, which is also used as the class path if asked to.
+     * If the map of types is given, the top-level classes declared in each source are put there
+     * in the internal form, keyed by the index of the source.
+     */
+    private int compile(File dir, boolean useAsClassPath, File[] sources, Map<Integer, List<String>> types,
+                        Deadline deadline, DiagnosticPrinter diagnostics, PrintStream err) throws IOException {
+        List<String> options = new ArrayList<>(Arrays.asList("-d", dir.getCanonicalPath()));
+        if (useAsClassPath) {
+            options.add("-cp");
+            options.add(dir.getCanonicalPath());
+        }
+        PrintWriter writer = createWriter(err, deadline);
+        StandardJavaFileManager fileManager = FileManagerPool.acquire(diagnostics != null ? diagnostics : writer::println);
+        boolean handedOver = false;
+        try {
+            List<JavaFileObject> units = new ArrayList<>(sources.length);
+            Map<URI, Integer> indices = new HashMap<>();
+            for (File source : sources) {
+                for (JavaFileObject unit : fileManager.getJavaFileObjects(source)) {
+                    indices.put(unit.toUri(), units.size());
+                    units.add(unit);
+                }
+            }
+            javax.tools.JavaCompiler.CompilationTask task = ToolProvider.getSystemJavaCompiler()
+                    .getTask(writer, fileManager, diagnostics, options, null, units);
+            if (types != null) {
+                ((JavacTask) task).addTaskListener(new TypeCollector(indices, types));
+            }
+            handedOver = true;
+            return call(task, writer, fileManager, sources, false, deadline, diagnostics);
+        } finally {
+            if (!handedOver) {
+                writer.flush();
+                FileManagerPool.release(fileManager);
+            }
+        }
+    }
+
+    private static PrintWriter createWriter(PrintStream err, Deadline deadline) {
+        Writer writer = new OutputStreamWriter(err, Charset.defaultCharset());
+        return new PrintWriter(deadline == null ? writer : deadline.guard(writer));
+    }
+
+    /**
+     * Runs the compilation task, cancelling it when the deadline, if any, passes, and finishing the printing
+     * of the diagnostics, if they are printed by the given printer. The writer is flushed, and the file manager
+     * is released once javac is done with it, which is after this method returns if the compilation is abandoned.
+     * Returns zero if it succeeds, {@link Main#EXIT_DEADLINE_EXCEEDED} if it is cancelled, and one otherwise.
+     */
+    private static int call(javax.tools.JavaCompiler.CompilationTask task, PrintWriter writer,
+                            StandardJavaFileManager fileManager, File[] sources, boolean inMemory,
+                            Deadline deadline, DiagnosticPrinter diagnostics) {
+        Events.JavacInvocation event = new Events.JavacInvocation();
+        event.begin();
+        boolean success;
+        try {
+            success = deadline == null ? callAndRelease(task, fileManager) : callWithDeadline(task, fileManager, deadline);
+        } catch (RuntimeException e) {
+            // The exceptions thrown to stop javac come out wrapped into whatever javac wraps them into.
+            if ((deadline == null || !deadline.isExceeded()) && (diagnostics == null || !diagnostics.isStopped())) {
+                throw e;
+            }
+            success = false;
+        } finally {
+            if (diagnostics != null) {
+                diagnostics.finish();
+            }
+            writer.flush();
+        }
+        boolean cancelled = deadline != null && deadline.isExceeded();
+        event.end();
+        if (event.shouldCommit()) {
+            event.sourceFiles = sources.length;
+            event.sourceBytes = totalLength(sources);
+            event.inMemory = inMemory;
+            event.success = success;
+            event.cancelled = cancelled;
+            event.commit();
+        }
+        return cancelled ? Main.EXIT_DEADLINE_EXCEEDED : success ? 0 : 1;
+    }
+
+    private static boolean callAndRelease(javax.tools.JavaCompiler.CompilationTask task,
+                                          StandardJavaFileManager fileManager) {
+        try {
+            return task.call();
+        } finally {
+            FileManagerPool.release(fileManager);
+        }
+    }
+
+    /**
+     * Runs the compilation task on a thread of its own, waiting for it until the deadline passes.
+     * If it does not finish by then, the deadline is made exceeded and the compilation is abandoned,
+     * to be stopped by the deadline at the next event of javac. Either way, the deadline is told
+     * when javac finishes, and how many bytes it has allocated on its thread.
+     */
+    private static boolean callWithDeadline(javax.tools.JavaCompiler.CompilationTask task,
+                                            StandardJavaFileManager fileManager, Deadline deadline) {
+        ((JavacTask) task).addTaskListener(deadline);
+        CompletableFuture<Boolean> future = CompletableFuture.supplyAsync(() -> {
+            long startAllocated = Metrics.allocatedBytes();
+            try {
+                return callAndRelease(task, fileManager);
+            } finally {
+                deadline.setJavacAllocatedBytes(Metrics.allocatedBytesSince(startAllocated));
+            }
+        }, javacThreads);
+        deadline.setJavac(future);
+        try {
+            return future.get(Math.max(deadline.remainingNanos(), 0), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            deadline.expire();
+            return false;
+        } catch (InterruptedException e) {
+            // Whoever interrupts us does not need the compilation anymore, so it is abandoned as well.
+            deadline.expire();
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * This collects the top-level classes declared in each source file as the files are parsed.
+     */
+    private static class TypeCollector implements TaskListener {
+        private final Map<URI, Integer> indices;
+        private final Map<Integer, List<String>> types;
+
+        TypeCollector(Map<URI, Integer> indices, Map<Integer, List<String>> types) {
+            this.indices = indices;
+            this.types = types;
+        }
+
+        @Override
+        public void finished(TaskEvent e) {
+            if (e.getKind() != TaskEvent.Kind.PARSE) {
+                return;
+            }
+            Integer index = indices.get(e.getSourceFile().toUri());
+            if (index == null) {
+                return;
+            }
+            CompilationUnitTree unit = e.getCompilationUnit();
+            String prefix = unit.getPackageName() == null ? "" : unit.getPackageName().toString().replace('.', '/') + "/";
+            List<String> declared = types.computeIfAbsent(index, i -> new ArrayList<>());
+            for (Tree declaration : unit.getTypeDecls()) {
+                if (declaration instanceof ClassTree) {
+                    declared.add(prefix + ((ClassTree) declaration).getSimpleName());
+                }
+            }
+        }
+    }
+
+    private int compileInMemory(File file, File[] sources, Compression compression, Deadline deadline,
+                                DiagnosticPrinter diagnostics, Context context) {
+        PrintStream err = context.getErr();
+        try {
+            Map<String, byte[]> classes = new TreeMap<>();
+            if (sources.length != 0) {
+                javax.tools.JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+                PrintWriter writer = createWriter(err, deadline);
+                // The in-memory file manager is not closed, as this would close the pooled one as well.
+                StandardJavaFileManager standardFileManager =
+                        FileManagerPool.acquire(diagnostics != null ? diagnostics : writer::println);
+                InMemoryFileManager fileManager = new InMemoryFileManager(standardFileManager, classes);
+                boolean handedOver = false;
+                try {
+                    String[] classNames = getClassNames(sources, context.getMetrics());
+                    List<JavaFileObject> units = new ArrayList<>(sources.length);
+                    for (int i = 0; i < sources.length; ++i) {
+                        for (JavaFileObject unit : standardFileManager.getJavaFileObjects(sources[i])) {
+                            units.add(new InMemoryFileManager.RenamedSourceFile(unit, classNames[i]));
+                        }
+                    }
+                    try (Metrics.Phase phase = context.getMetrics().phase("javac")) {
+                        javax.tools.JavaCompiler.CompilationTask task =
+                                compiler.getTask(writer, fileManager, diagnostics, null, null, units);
+                        handedOver = true;
+                        int exitCode = call(task, writer, standardFileManager, sources, true, deadline, diagnostics);
+                        phase.addBytes(totalLength(sources));
+                        if (exitCode != 0) {
+                            return exitCode;
+                        }
+                    }
+                } finally {
+                    if (!handedOver) {
+                        writer.flush();
+                        FileManagerPool.release(standardFileManager);
+                    }
+                }
+            }
+            try (Metrics.Phase phase = context.getMetrics().phase("create-jar")) {
+                phase.addBytes(createJar(file, classes, compression, context));
+            }
             return 0;
         } catch (IOException e) {
-            e.printStackTrace();
+            e.printStackTrace(err);
             return 100;
         }
     }
 
-    private int compile(File dir, File[] sources) throws IOException {
-        String[] args = new String[sources.length + 2];
-        args[0] = "-d";
-        args[1] = dir.getCanonicalPath();
-        for (int i = 0; i < sources.length; ++i) {
-            args[i + 2] = sources[i].getCanonicalPath();
+    private String[] getClassNames(File[] sources, Metrics metrics) throws IOException {
+        try (Metrics.Phase phase = metrics.phase("class-names")) {
+            String[] rv = new String[sources.length];
+            for (int i = 0; i < sources.length; ++i) {
+                rv[i] = getClassName(sources[i]);
+            }
+            phase.addBytes(totalLength(sources));
+            return rv;
         }
-        return ToolProvider.getSystemJavaCompiler().run(null, null, null, args);
     }
 
-    private File[] copyFiles(File dir, File[] files) throws IOException {
-        if (dir.exists()) {
-            rmrf(dir);
+    private static long totalLength(File[] files) {
+        long rv = 0;
+        for (File file : files) {
+            rv += file.length();
         }
-        dir.mkdirs();
+        return rv;
+    }
+
+    private File[] copyFiles(File dir, File[] files, String[] classNames) throws IOException {
+        WorkDirectories.prepare(dir);
         File[] rv = new File[files.length];
         for (int i = 0; i < files.length; ++i) {
-            rv[i] = new File(dir, getFilename(files[i]));
+            rv[i] = new File(dir, classNames[i].replace('.', '/') + ".java");
             copyFile(files[i], rv[i]);
         }
         return rv;
     }
 
-    private String getFilename(File file) throws IOException {
-        return getClassName(file).replace('.', '/') + ".java";
-    }
-
     private void findFiles(File dir, String path, String extension, List<String> result) {
         File[] files = dir.listFiles();
         if (files != null) {
@@ -145,12 +718,15 @@ public class JavaCompiler extends Module {
         }
     }
 
-    private void copyStream(InputStream inputStream, OutputStream outputStream) throws IOException {
+    private long copyStream(InputStream inputStream, OutputStream outputStream) throws IOException {
         byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        long total = 0;
         int bytes;
         while ((bytes = inputStream.read(buffer)) > 0) {
             outputStream.write(buffer, 0, bytes);
+            total += bytes;
         }
+        return total;
     }
 
     private void copyFile(File fromFile, File toFile) throws IOException {
@@ -161,16 +737,44 @@ public class JavaCompiler extends Module {
         }
     }
 
-    private void createJar(File jarFile, File dir, String[] files) throws IOException {
-        try (FileOutputStream fos = new FileOutputStream(jarFile);
-             JarOutputStream jos = new JarOutputStream(fos)) {
-            for (String file : files) {
-                jos.putNextEntry(new JarEntry(file));
-                try (FileInputStream fis = new FileInputStream(new File(dir, file));
-                     BufferedInputStream inputStream = new BufferedInputStream(fis)) {
-                    copyStream(inputStream, jos);
-                }
-            }
+    /**
+     * Creates a JAR file with the given files from the given directory. Returns the total size of the files.
+     */
+    private long createJar(File jarFile, File dir, String[] files, Compression compression, Context context)
+            throws IOException {
+        int dosTime = ZipWriter.toDosTime(System.currentTimeMillis());
+        long bytes = 0;
+        List<ZipWriter.Preparation> preparations = new ArrayList<>(files.length);
+        for (String file : files) {
+            File source = new File(dir, file);
+            bytes += source.length();
+            preparations.add(() -> {
+                byte[] contents = Files.readAllBytes(source.toPath());
+                return ZipWriter.prepare(file, contents, 0, contents.length, compression, dosTime);
+            });
+        }
+        try (ZipWriter writer = new ZipWriter(new BufferedOutputStream(context.openOutput(jarFile)))) {
+            writer.writeAll(preparations);
+        }
+        return bytes;
+    }
+
+    /**
+     * Creates a JAR file with the given classes. Returns the total size of the classes.
+     */
+    private long createJar(File jarFile, Map<String, byte[]> classes, Compression compression, Context context)
+            throws IOException {
+        int dosTime = ZipWriter.toDosTime(System.currentTimeMillis());
+        long bytes = 0;
+        List<ZipWriter.Preparation> preparations = new ArrayList<>(classes.size());
+        for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+            byte[] contents = entry.getValue();
+            bytes += contents.length;
+            preparations.add(() -> ZipWriter.prepare(entry.getKey(), contents, 0, contents.length, compression, dosTime));
+        }
+        try (ZipWriter writer = new ZipWriter(new BufferedOutputStream(context.openOutput(jarFile)))) {
+            writer.writeAll(preparations);
         }
+        return bytes;
     }
 }
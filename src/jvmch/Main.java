@@ -1,8 +1,9 @@
 package jvmch;
 
-import java.io.PrintStream;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.*;
-import java.util.function.BooleanSupplier;
 
 /**
  * This is the entry point to the JVM Compiler Helper facility.
@@ -10,14 +11,22 @@ import java.util.function.BooleanSupplier;
  * @author Maxim Buzdalov
  */
 public class Main {
-    private static void printUsageAndExit(Map<String, Module> modules) {
-        PrintStream err = System.err;
+    static final String METRICS = "--metrics";
+    /** The exit code of a chain in which a command has not finished in the time it has been given. */
+    static final int EXIT_DEADLINE_EXCEEDED = 124;
 
-        err.println("Usage: " + Main.class.getCanonicalName() + " <command> [command-arguments] ['--then' <command> [command-arguments]]*");
-        err.println("    where <command> is one of:");
+    private static void printUsage(Map<String, Module> modules, PrintStream err) {
+        err.println("Usage: " + Main.class.getCanonicalName() + " [" + METRICS + " <file>] <command> [command-arguments] ['--then' <command> [command-arguments]]*");
+        err.println("    where " + METRICS + " means to write the timing and resource metrics of every command run,");
+        err.println("        split into phases, to the given file as JSON objects, one per line,");
+        err.println("    and <command> is one of:");
         for (Map.Entry<String, Module> entry : modules.entrySet()) {
             err.println("        " + entry.getKey() + ": " + entry.getValue().getUsage());
         }
+    }
+
+    private static void printUsageAndExit(Map<String, Module> modules) {
+        printUsage(modules, System.err);
         System.exit(1);
     }
 
@@ -30,42 +39,215 @@ public class Main {
         return array.length;
     }
 
-    public static void main(String[] args) {
+    static Map<String, Module> createModules() {
         Map<String, Module> modules = new HashMap<>();
         modules.put("annotate-jar-with-main-class-attribute", new MainClassJarAnnotator());
+        modules.put("compile-java-batch", new BatchCompiler());
         modules.put("compile-java-files", new JavaCompiler());
+        modules.put("create-cds-archive", new CdsArchiveCreator());
         modules.put("merge-jar-files", new JarFilesMerger());
+        modules.put("serve-requests", new CompileServer(modules));
+        modules.put("shrink-jar", new JarShrinker());
+        return modules;
+    }
 
-        if (args.length == 0) {
-            printUsageAndExit(modules);
-            return;
+    /**
+     * This is a module together with its arguments, ready to be run.
+     */
+    static final class Command {
+        final String name;
+        final Module module;
+        final String[] args;
+        /** The files the command reads, or {@code null} if they are unknown. */
+        final Set<Path> inputs;
+        /** The files the command writes, or {@code null} if they are unknown. */
+        final Set<Path> outputs;
+
+        /** The metrics of the command, which are {@link Metrics#DISABLED} unless requested. */
+        Metrics metrics = Metrics.DISABLED;
+
+        Command(String name, Module module, String[] args) {
+            this.name = name;
+            this.module = module;
+            this.args = args;
+            this.inputs = toKeys(module.getInputFiles(args));
+            this.outputs = toKeys(module.getOutputFiles(args));
+        }
+
+        /**
+         * Returns whether it is known which files the command reads and writes.
+         */
+        boolean hasKnownFiles() {
+            return inputs != null && outputs != null;
         }
 
-        List<BooleanSupplier> commandsToRun = new ArrayList<>();
-        for (int cmd = 0; cmd < args.length; ++cmd) {
+        /**
+         * Returns whether the command must run after the given earlier command.
+         */
+        boolean dependsOn(Command earlier) {
+            return !hasKnownFiles() || !earlier.hasKnownFiles()
+                    || intersects(earlier.outputs, inputs)
+                    || intersects(earlier.outputs, outputs)
+                    || intersects(earlier.inputs, outputs);
+        }
+
+        private static Set<Path> toKeys(List<File> files) {
+            if (files == null) {
+                return null;
+            }
+            Set<Path> rv = new HashSet<>();
+            for (File file : files) {
+                rv.add(Context.key(file));
+            }
+            return rv;
+        }
+
+        private static boolean intersects(Set<Path> a, Set<Path> b) {
+            for (Path path : a) {
+                if (b.contains(path)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        boolean run(Context context) {
+            boolean success = false;
+            Events.ModuleRun event = new Events.ModuleRun();
+            event.begin();
+            metrics.start();
+            try {
+                success = module.run(args, context);
+                return success;
+            } finally {
+                metrics.finish(success);
+                event.end();
+                if (event.shouldCommit()) {
+                    event.module = name;
+                    event.inputFiles = inputs == null ? -1 : inputs.size();
+                    event.outputFiles = outputs == null ? -1 : outputs.size();
+                    event.success = success;
+                    event.commit();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of leading arguments which are global options rather than commands.
+     */
+    static int countGlobalOptions(String[] args) {
+        return args.length >= 2 && args[0].equals(METRICS) ? 2 : 0;
+    }
+
+    /**
+     * Parses a chain of commands separated by '--then', which starts at the given index of the arguments.
+     * Returns {@code null} if the chain is malformed, in which case the error is already printed to {@code err}.
+     */
+    static List<Command> parseCommands(Map<String, Module> modules, String[] args, int from, PrintStream err) {
+        List<Command> commandsToRun = new ArrayList<>();
+        for (int cmd = from; cmd < args.length; ++cmd) {
             Module current = modules.get(args[cmd]);
             if (current == null) {
-                System.err.println("Error: command line argument no. " + (cmd + 1)
+                err.println("Error: command line argument no. " + (cmd + 1)
                         + ", which is '" + args[cmd] + "' does not name a module.");
-                printUsageAndExit(modules);
-                return;
+                return null;
             }
             int first = ++cmd;
             int last = indexOfSharpOrLength(args, first + 1);
             String[] localArgs = Arrays.copyOfRange(args, first, last);
-            if (!current.checkArgs(localArgs, first)) {
-                printUsageAndExit(modules);
-                return;
+            if (!current.checkArgs(localArgs, first, err)) {
+                return null;
             }
-            commandsToRun.add(() -> current.run(localArgs));
+            commandsToRun.add(new Command(args[first - 1], current, localArgs));
             cmd = last;
         }
+        return commandsToRun;
+    }
 
-        for (BooleanSupplier r : commandsToRun) {
-            if (!r.getAsBoolean()) {
-                System.exit(1);
-                return;
+    /**
+     * Finds, for each command, the files which it writes only to be overwritten by a later command,
+     * so there is no need to write them to disk as long as all the commands in between are known
+     * to read and write files through the context.
+     */
+    static List<Set<Path>> findIntermediateFiles(List<Command> commands) {
+        List<Set<Path>> result = new ArrayList<>();
+        for (int i = 0; i < commands.size(); ++i) {
+            Set<Path> intermediate = new HashSet<>();
+            result.add(intermediate);
+            Set<Path> outputs = commands.get(i).outputs;
+            if (outputs == null) {
+                continue;
+            }
+            for (Path output : outputs) {
+                for (int j = i + 1; j < commands.size(); ++j) {
+                    Command later = commands.get(j);
+                    if (!later.hasKnownFiles()) {
+                        break;
+                    }
+                    if (later.outputs.contains(output)) {
+                        intermediate.add(output);
+                        break;
+                    }
+                }
             }
         }
+        return result;
+    }
+
+    /**
+     * Runs the commands, stopping at the first failing one, and returns the exit code, see {@link CommandScheduler#run()}.
+     * Commands which do not depend on each other may run concurrently, see {@link CommandScheduler}.
+     */
+    static int runCommands(List<Command> commandsToRun, PrintStream out, PrintStream err) {
+        return new CommandScheduler(commandsToRun, findIntermediateFiles(commandsToRun), out, err).run();
+    }
+
+    /**
+     * Runs the commands as {@link #runCommands(List, PrintStream, PrintStream)} does, collecting their metrics,
+     * then writes the metrics of the commands which have been run to the given file.
+     */
+    static int runCommands(List<Command> commandsToRun, PrintStream out, PrintStream err, File metricsFile) {
+        if (metricsFile == null) {
+            return runCommands(commandsToRun, out, err);
+        }
+        for (Command command : commandsToRun) {
+            command.metrics = new Metrics(command.name);
+        }
+        int exitCode = runCommands(commandsToRun, out, err);
+        try (PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(metricsFile), StandardCharsets.UTF_8))) {
+            for (Command command : commandsToRun) {
+                if (command.metrics.isStarted()) {
+                    writer.println(command.metrics.toJson());
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace(err);
+        }
+        return exitCode;
+    }
+
+    public static void main(String[] args) {
+        Map<String, Module> modules = createModules();
+
+        if (args.length == 0) {
+            printUsageAndExit(modules);
+            return;
+        }
+
+        int globalOptions = countGlobalOptions(args);
+        File metricsFile = globalOptions == 0 ? null : new File(args[1]);
+        List<Command> commandsToRun = parseCommands(modules, args, globalOptions, System.err);
+        if (commandsToRun == null || commandsToRun.isEmpty()) {
+            printUsageAndExit(modules);
+            return;
+        }
+
+        int exitCode = runCommands(commandsToRun, System.out, System.err, metricsFile);
+        Deadline.runPendingActions();
+        WorkDirectories.awaitCleanup();
+        if (exitCode != 0) {
+            System.exit(exitCode);
+        }
     }
 }
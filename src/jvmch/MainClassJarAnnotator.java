@@ -1,10 +1,13 @@
 package jvmch;
 
 import java.io.*;
-import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.jar.*;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
 
 /**
  * This is the module for annotating JAR files with the main class.
@@ -15,14 +18,26 @@ public class MainClassJarAnnotator extends Module {
     private static final String FORCE_OVERWRITE = "--force-overwrite";
     private static final String USE_FIRST = "--use-first";
     private static final String VERBOSE = "--verbose";
+    private static final String COMPRESSION = "--compression";
+    private static final String MANIFEST_DIRECTORY = "META-INF/";
+
+    private static final int PARALLEL_SEARCH_THRESHOLD = 512;
+    private static final int PARALLEL_SEARCH_CHUNK = 128;
 
     private static final Set<String> possibleExtraArgs = new HashSet<>(Arrays.asList(FORCE_OVERWRITE, USE_FIRST, VERBOSE));
 
     @Override
-    public boolean checkArgs(String[] args, int argumentOffset) {
+    public boolean checkArgs(String[] args, int argumentOffset, PrintStream err) {
         for (int i = 2; i < args.length; ++i) {
+            if (args[i].equals(COMPRESSION)) {
+                if (++i == args.length || Compression.parse(args[i]) == null) {
+                    err.println("Error: at command line argument no. " + (argumentOffset + i + 1) + ": "
+                            + COMPRESSION + " requires 'store' or a level from 0 to 9.");
+                    return false;
+                }
+                continue;
+            }
             if (!possibleExtraArgs.contains(args[i])) {
-                PrintStream err = System.err;
                 err.println("Error: expected the arguments for the command at index "
                         + (argumentOffset + 1) + " to be:");
                 err.print("    <source-jar-name> <target-jar-name>");
@@ -31,6 +46,7 @@ public class MainClassJarAnnotator extends Module {
                     err.print(s);
                     err.print("]");
                 }
+                err.print(" [" + COMPRESSION + " store|<level>]");
                 err.println();
                 err.print("Found:");
                 for (String a : args) {
@@ -45,19 +61,33 @@ public class MainClassJarAnnotator extends Module {
         return true;
     }
 
+    @Override
+    public List<File> getInputFiles(String[] args) {
+        return Collections.singletonList(new File(args[0]));
+    }
+
+    @Override
+    public List<File> getOutputFiles(String[] args) {
+        return Collections.singletonList(new File(args[1]));
+    }
+
     @Override
     public String getUsage() {
         return "annotates the given JAR file with a Main-Class attribute.\n"
-                + "            The arguments are: <source-jar-name> <target-jar-name> [" + FORCE_OVERWRITE + "] [" + USE_FIRST + "] [" + VERBOSE + "], where:\n"
+                + "            The arguments are: <source-jar-name> <target-jar-name> [" + FORCE_OVERWRITE + "] [" + USE_FIRST + "] [" + VERBOSE + "]\n"
+                + "                [" + COMPRESSION + " store|<level>], where:\n"
                 + "                <source-jar-name> is the path to the JAR file to be read;\n"
                 + "                <target-jar-name> is the path to the JAR file to be created;\n"
                 + "                " + FORCE_OVERWRITE + " means to overwrite the existing Main-Class attribute;\n"
                 + "                " + USE_FIRST + " means to use the first main class when multiple ones are found;\n"
-                + "                " + VERBOSE + " enables printing non-error messages to the standard output.";
+                + "                " + VERBOSE + " enables printing non-error messages to the standard output;\n"
+                + "                " + COMPRESSION + " means to recompress the entries when the file is rewritten:\n"
+                + "                    'store' means no compression, otherwise it is the deflate level from 0 to 9.\n"
+                + "                    By default, the entries are copied as they are.";
     }
 
-    private String getName(JarEntry entry) {
-        String name = entry.getName().replace('/', '.');
+    private String getName(String entryName) {
+        String name = entryName.replace('/', '.');
         if (name.endsWith(".class")) {
             return name.substring(0, name.length() - ".class".length());
         } else {
@@ -65,205 +95,329 @@ public class MainClassJarAnnotator extends Module {
         }
     }
 
-    private static class SeriousException extends Exception {
-        public SeriousException(String message) {
-            super(message);
-        }
-    }
-
-    private boolean isMainClass(InputStream stream) throws IOException {
-        try {
-            DataInputStream ds = new DataInputStream(stream);
-            if (ds.readInt() != 0xCAFEBABE) {
-                return false;
-            }
-            ds.readUnsignedShort(); // minor version
-            ds.readUnsignedShort(); // major version
-            int constantPoolCount = ds.readUnsignedShort(); // not very large, can continue without checking
-            if (constantPoolCount <= 0) {
-                return false;
+    /**
+     * Reads the rest of the stream into the buffer, which is grown if necessary.
+     * Returns the buffer, which may be a new one, and stores the number of bytes read into {@code length[0]}.
+     */
+    private static byte[] readFully(InputStream stream, byte[] buffer, int[] length) throws IOException {
+        int offset = 0;
+        int count;
+        while ((count = stream.read(buffer, offset, buffer.length - offset)) > 0) {
+            offset += count;
+            if (offset == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
             }
-            String[] strings = new String[constantPoolCount];
-            for (int i = 1; i < constantPoolCount; ++i) { // this starts really from 1, see JLS.
-                int tag = ds.readUnsignedByte();
-                switch (tag) {
-                    case 1: { // "UTF-8"
-                        strings[i] = ds.readUTF();
-                        break;
-                    }
-                    case 3: // Integer
-                    case 4: // Float
-                        ds.readInt();
-                        break;
-                    case 5: // Long
-                    case 6: // Double
-                        ds.readLong();
-                        ++i; // these two take up TWO SLOTS!
-                        break;
-                    case 7: // Class
-                    case 8: // String
-                    case 16: // Method type
-                    case 19: // Module, Java 9
-                    case 20: // Package, Java 9
-                        ds.readUnsignedShort();
-                        break;
-                    case 9: // Field reference
-                    case 10: // Method reference
-                    case 11: // Interface method reference
-                    case 12: // Name and type
-                    case 17: // Dynamic, Java 11
-                    case 18: // Invoke dynamic
-                        ds.readUnsignedShort();
-                        ds.readUnsignedShort();
-                        break;
-                    case 15: // Method handle
-                        ds.readUnsignedByte();
-                        ds.readUnsignedShort();
-                        break;
-                    default:
-                        throw new SeriousException("Unknown JVM constant pool tag: " + tag
-                                + ". Please notify the course administrator.");
-                }
-            }
-            ds.readUnsignedShort(); // access flags
-            ds.readUnsignedShort(); // this class
-            ds.readUnsignedShort(); // super class
-            int interfaceCount = ds.readUnsignedShort();
-            for (int i = 0; i < interfaceCount; ++i) {
-                ds.readUnsignedShort();
-            }
-            int fieldsCount = ds.readUnsignedShort();
-            for (int i = 0; i < fieldsCount; ++i) {
-                ds.readUnsignedShort(); // access flags
-                ds.readUnsignedShort(); // name index
-                ds.readUnsignedShort(); // descriptor index
-                int attributesCount = ds.readUnsignedShort();
-                for (int a = 0; a < attributesCount; ++a) {
-                    ds.readUnsignedShort(); // attribute name index
-                    int length = ds.readInt(); // attribute length
-                    ds.skipBytes(length);
-                }
-            }
-            int methodsCount = ds.readUnsignedShort();
-            boolean hasMainMethod = false;
-            for (int i = 0; i < methodsCount; ++i) {
-                int accessFlags = ds.readUnsignedShort();
-                int nameIndex = ds.readUnsignedShort();
-                int descriptorIndex = ds.readUnsignedShort();
-                int attributesCount = ds.readUnsignedShort();
-                for (int a = 0; a < attributesCount; ++a) {
-                    ds.readUnsignedShort(); // attribute name index
-                    int length = ds.readInt(); // attribute length
-                    ds.skipBytes(length);
-                }
-                if (nameIndex > 0 && nameIndex < constantPoolCount
-                        && descriptorIndex > 0 && descriptorIndex < constantPoolCount) {
-                    String name = strings[nameIndex];
-                    String desc = strings[descriptorIndex];
-                    if ((accessFlags & 9) == 9
-                            && name != null && name.equals("main")
-                            && desc != null && desc.equals("([Ljava/lang/String;)V")) {
-                        hasMainMethod = true;
-                    }
-                }
-            }
-            int attributesCount = ds.readUnsignedShort();
-            for (int a = 0; a < attributesCount; ++a) {
-                ds.readUnsignedShort(); // attribute name index
-                int length = ds.readInt(); // attribute length
-                ds.skipBytes(length);
-            }
-            return hasMainMethod;
-        } catch (IOException ex) {
-            return false;
-        } catch (SeriousException ex) {
-            throw new IOException(ex.getMessage());
         }
+        length[0] = offset;
+        return buffer;
     }
 
     @Override
-    public boolean run(String[] args) {
+    @SuppressWarnings("try")
+    public boolean run(String[] args, Context context) {
+        PrintStream out = context.getOut();
         try {
             String sourceJarFileName = args[0];
             String targetJarFileName = args[1];
             boolean forceOverwrite = false;
             boolean useFirst = false;
             boolean verbose = false;
+            Compression compression = null;
             for (int i = 2; i < args.length; ++i) {
+                if (args[i].equals(COMPRESSION)) {
+                    compression = Compression.parse(args[++i]);
+                    continue;
+                }
                 forceOverwrite |= args[i].equals(FORCE_OVERWRITE);
                 useFirst |= args[i].equals(USE_FIRST);
                 verbose |= args[i].equals(VERBOSE);
             }
 
-            byte[] jarFile = Files.readAllBytes(Paths.get(sourceJarFileName));
-            List<String> mainClasses = new ArrayList<>();
-            Manifest manifest;
-            try (JarInputStream input = new JarInputStream(new ByteArrayInputStream(jarFile))) {
-                manifest = input.getManifest();
-                if (manifest != null) {
-                    Attributes attributes = manifest.getMainAttributes();
-                    String ofMain = attributes.getValue(Attributes.Name.MAIN_CLASS);
-                    if (ofMain != null && !forceOverwrite) {
-                        if (verbose) {
-                            System.out.println("This file already has Main-Class set to " + ofMain);
+            Metrics metrics = context.getMetrics();
+            ZipDirectory directory;
+            ZipDirectory.Entry manifestEntry = null;
+            ZipDirectory.Entry manifestDirectoryEntry = null;
+            Manifest manifest = null;
+            try (Metrics.Phase phase = metrics.phase("read")) {
+                directory = openZipOrNull(context, new File(sourceJarFileName));
+                if (directory != null) {
+                    for (ZipDirectory.Entry entry : directory.getEntries()) {
+                        if (entry.name.equalsIgnoreCase(JarFile.MANIFEST_NAME)) {
+                            manifestEntry = entry;
+                        } else if (entry.name.equalsIgnoreCase(MANIFEST_DIRECTORY)) {
+                            manifestDirectoryEntry = entry;
                         }
-                        // No --force-overwrite is specified.
-                        Files.copy(Paths.get(sourceJarFileName), Paths.get(targetJarFileName));
-                        return true;
                     }
-                }
-
-                JarEntry current;
-                while ((current = input.getNextJarEntry()) != null) {
-                    if (isMainClass(input)) {
-                        mainClasses.add(getName(current));
+                    if (manifestEntry != null) {
+                        manifest = new Manifest(new ByteArrayInputStream(directory.getBytes(manifestEntry)));
+                        phase.addBytes(manifestEntry.size);
                     }
                 }
             }
-            if (mainClasses.size() == 0) {
-                throw new IOException("The JAR file contains no classes with 'public static void main(String[])' " +
-                        "or an equivalent construction.");
+            if (directory == null) {
+                // Something we cannot copy raw, such as ZIP64; let java.util.zip deal with it.
+                runByRecompressing(sourceJarFileName, targetJarFileName, forceOverwrite, useFirst, verbose,
+                        compression == null ? Compression.DEFAULT : compression, context);
+                return true;
+            }
+            if (manifest != null && alreadyHasMainClass(manifest, forceOverwrite, verbose, out)) {
+                try (Metrics.Phase phase = metrics.phase("copy")) {
+                    context.copy(new File(sourceJarFileName), new File(targetJarFileName));
+                }
+                return true;
             }
-            if (mainClasses.size() > 1 && !useFirst) {
-                StringBuilder sb = new StringBuilder();
-                sb.append("The JAR file contains two or more classes with 'public static void main(String[])' ");
-                sb.append("or equivalent constructions:");
-                for (String e : mainClasses) {
-                    sb.append(" ");
-                    sb.append(e);
+
+            List<ZipDirectory.Entry> classEntries = new ArrayList<>();
+            boolean[] isMain;
+            Events.ClassScan event = new Events.ClassScan();
+            event.begin();
+            long classBytes = 0;
+            try (Metrics.Phase phase = metrics.phase("scan")) {
+                for (ZipDirectory.Entry entry : directory.getEntries()) {
+                    if (entry.name.endsWith(".class")) {
+                        classEntries.add(entry);
+                        classBytes += entry.size;
+                    }
+                }
+                phase.addBytes(classBytes);
+                isMain = new boolean[classEntries.size()];
+                MainClassSearch search = new MainClassSearch(directory, classEntries, isMain, 0, isMain.length);
+                if (isMain.length < PARALLEL_SEARCH_THRESHOLD) {
+                    search.scanSequentially();
+                } else {
+                    try {
+                        ForkJoinPool.commonPool().invoke(search);
+                    } catch (UncheckedIOException e) {
+                        throw e.getCause();
+                    }
                 }
-                throw new IOException(sb.toString());
             }
-            String mainClassName = mainClasses.get(0);
-            if (manifest == null) {
-                manifest = new Manifest();
+            // The results are collected in the order of entries, so that --use-first is deterministic.
+            List<String> mainClasses = new ArrayList<>();
+            for (int i = 0; i < isMain.length; ++i) {
+                if (isMain[i]) {
+                    mainClasses.add(getName(classEntries.get(i).name));
+                }
             }
-            if (verbose) {
-                System.out.println("Setting the Main-Class attribute to " + mainClassName);
+            event.end();
+            if (event.shouldCommit()) {
+                event.jarFile = sourceJarFileName;
+                event.classes = classEntries.size();
+                event.classBytes = classBytes;
+                event.mainClasses = mainClasses.size();
+                event.parallel = classEntries.size() >= PARALLEL_SEARCH_THRESHOLD;
+                event.commit();
             }
-            manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
-            manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, mainClassName);
+            String mainClassName = chooseMainClass(mainClasses, useFirst);
+            manifest = setMainClass(manifest, mainClassName, verbose, out);
+            ByteArrayOutputStream manifestBytes = new ByteArrayOutputStream();
+            manifest.write(manifestBytes);
 
-            try (FileOutputStream fileOut = new FileOutputStream(targetJarFileName);
-                 JarOutputStream output = new JarOutputStream(fileOut, manifest);
-                 JarInputStream input = new JarInputStream(new ByteArrayInputStream(jarFile))) {
-                JarEntry entry;
-                byte[] buffer = new byte[8192];
-                while ((entry = input.getNextJarEntry()) != null) {
-                    if (entry.getName().equals("META-INF/MANIFEST.MF")) {
-                        continue;
+            ZipDirectory.Entry skippedManifestEntry = manifestEntry;
+            ZipDirectory.Entry firstEntry = manifestDirectoryEntry;
+            Compression entryCompression = compression;
+            try (Metrics.Phase phase = metrics.phase("rewrite");
+                 ZipDirectory.EntryReader reader = new ZipDirectory.EntryReader()) {
+                context.writeZip(new File(targetJarFileName), writer -> {
+                    if (firstEntry != null) {
+                        writer.writeRaw(firstEntry, directory.getRawData(firstEntry));
                     }
-                    output.putNextEntry(entry);
-                    int sz;
-                    while ((sz = input.read(buffer)) > 0) {
-                        output.write(buffer, 0, sz);
+                    writer.writeEntry(JarFile.MANIFEST_NAME, manifestBytes.toByteArray(), 0, manifestBytes.size(),
+                            entryCompression == null ? Compression.DEFAULT : entryCompression);
+                    for (ZipDirectory.Entry entry : directory.getEntries()) {
+                        if (entry != firstEntry && entry != skippedManifestEntry) {
+                            if (entryCompression == null || entry.isDirectory()
+                                    || entryCompression.isStored() && entry.method == ZipEntry.STORED) {
+                                writer.writeRaw(entry, directory.getRawData(entry));
+                                phase.addBytes(entry.compressedSize);
+                            } else {
+                                byte[] contents = reader.read(directory, entry);
+                                writer.writeEntry(entry.name, contents, 0, (int) entry.size,
+                                        entryCompression, entry.dosTime);
+                                phase.addBytes(entry.size);
+                            }
+                        }
                     }
-                }
+                });
             }
             return true;
         } catch (IOException e) {
-            System.err.println(e.getMessage());
+            context.getErr().println(e.getMessage());
             return false;
         }
     }
+
+    /**
+     * This is the search for main classes among the given range of class entries, which splits itself
+     * into parts to be run in parallel when the range is large enough.
+     */
+    private static class MainClassSearch extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final ZipDirectory directory;
+        private final List<ZipDirectory.Entry> entries;
+        private final boolean[] isMain;
+        private final int from, until;
+
+        MainClassSearch(ZipDirectory directory, List<ZipDirectory.Entry> entries, boolean[] isMain, int from, int until) {
+            this.directory = directory;
+            this.entries = entries;
+            this.isMain = isMain;
+            this.from = from;
+            this.until = until;
+        }
+
+        @Override
+        protected void compute() {
+            if (until - from <= PARALLEL_SEARCH_CHUNK) {
+                try {
+                    scanSequentially();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            } else {
+                int middle = (from + until) >>> 1;
+                invokeAll(new MainClassSearch(directory, entries, isMain, from, middle),
+                          new MainClassSearch(directory, entries, isMain, middle, until));
+            }
+        }
+
+        void scanSequentially() throws IOException {
+            ClassFileScanner scanner = new ClassFileScanner();
+            try (ZipDirectory.EntryReader reader = new ZipDirectory.EntryReader()) {
+                for (int i = from; i < until; ++i) {
+                    ZipDirectory.Entry entry = entries.get(i);
+                    byte[] contents = reader.read(directory, entry);
+                    isMain[i] = scanner.scan(contents, 0, (int) entry.size) && scanner.hasMainMethod();
+                }
+            }
+        }
+    }
+
+    private boolean alreadyHasMainClass(Manifest manifest, boolean forceOverwrite, boolean verbose, PrintStream out) {
+        String ofMain = manifest.getMainAttributes().getValue(Attributes.Name.MAIN_CLASS);
+        if (ofMain != null && !forceOverwrite) {
+            // No --force-overwrite is specified.
+            if (verbose) {
+                out.println("This file already has Main-Class set to " + ofMain);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private String chooseMainClass(List<String> mainClasses, boolean useFirst) throws IOException {
+        if (mainClasses.size() == 0) {
+            throw new IOException("The JAR file contains no classes with 'public static void main(String[])' " +
+                    "or an equivalent construction.");
+        }
+        if (mainClasses.size() > 1 && !useFirst) {
+            StringBuilder sb = new StringBuilder();
+            sb.append("The JAR file contains two or more classes with 'public static void main(String[])' ");
+            sb.append("or equivalent constructions:");
+            for (String e : mainClasses) {
+                sb.append(" ");
+                sb.append(e);
+            }
+            throw new IOException(sb.toString());
+        }
+        return mainClasses.get(0);
+    }
+
+    private Manifest setMainClass(Manifest manifest, String mainClassName, boolean verbose, PrintStream out) {
+        if (manifest == null) {
+            manifest = new Manifest();
+        }
+        if (verbose) {
+            out.println("Setting the Main-Class attribute to " + mainClassName);
+        }
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, mainClassName);
+        return manifest;
+    }
+
+    /**
+     * Opens the given ZIP file, or returns {@code null} if it cannot be handled without java.util.zip.
+     */
+    private static ZipDirectory openZipOrNull(Context context, File file) throws IOException {
+        try {
+            return context.openZip(file);
+        } catch (ZipException e) {
+            return null;
+        }
+    }
+
+    private void runByRecompressing(String sourceJarFileName, String targetJarFileName,
+                                    boolean forceOverwrite, boolean useFirst, boolean verbose,
+                                    Compression compression, Context context) throws IOException {
+        PrintStream out = context.getOut();
+        Metrics metrics = context.getMetrics();
+        byte[] jarFile;
+        try (Metrics.Phase phase = metrics.phase("read");
+             InputStream input = context.openInput(new File(sourceJarFileName))) {
+            int[] length = new int[1];
+            jarFile = readFully(input, new byte[8192], length);
+            jarFile = Arrays.copyOf(jarFile, length[0]);
+            phase.addBytes(jarFile.length);
+        }
+        List<String> mainClasses = new ArrayList<>();
+        Manifest manifest;
+        try (Metrics.Phase phase = metrics.phase("scan");
+             JarInputStream input = new JarInputStream(new ByteArrayInputStream(jarFile))) {
+            manifest = input.getManifest();
+            if (manifest != null && alreadyHasMainClass(manifest, forceOverwrite, verbose, out)) {
+                context.copy(new File(sourceJarFileName), new File(targetJarFileName));
+                return;
+            }
+
+            ClassFileScanner scanner = new ClassFileScanner();
+            byte[] classBuffer = new byte[8192];
+            int[] classLength = new int[1];
+            JarEntry current;
+            while ((current = input.getNextJarEntry()) != null) {
+                if (!current.getName().endsWith(".class")) {
+                    continue;
+                }
+                classBuffer = readFully(input, classBuffer, classLength);
+                phase.addBytes(classLength[0]);
+                if (scanner.scan(classBuffer, 0, classLength[0]) && scanner.hasMainMethod()) {
+                    mainClasses.add(getName(current.getName()));
+                }
+            }
+        }
+        String mainClassName = chooseMainClass(mainClasses, useFirst);
+        manifest = setMainClass(manifest, mainClassName, verbose, out);
+
+        try (Metrics.Phase phase = metrics.phase("rewrite");
+             OutputStream fileOut = context.openOutput(new File(targetJarFileName));
+             JarOutputStream output = new JarOutputStream(fileOut, manifest);
+             JarInputStream input = new JarInputStream(new ByteArrayInputStream(jarFile))) {
+            if (!compression.isStored()) {
+                output.setLevel(compression.getLevel());
+            }
+            JarEntry entry;
+            byte[] buffer = new byte[8192];
+            int[] length = new int[1];
+            while ((entry = input.getNextJarEntry()) != null) {
+                if (entry.getName().equals("META-INF/MANIFEST.MF")) {
+                    continue;
+                }
+                buffer = readFully(input, buffer, length);
+                // The entry is recreated, as the compressed size of the original one would not match.
+                JarEntry newEntry = new JarEntry(entry.getName());
+                newEntry.setTime(entry.getTime());
+                if (compression.isStored()) {
+                    CRC32 crc = new CRC32();
+                    crc.update(buffer, 0, length[0]);
+                    newEntry.setMethod(ZipEntry.STORED);
+                    newEntry.setSize(length[0]);
+                    newEntry.setCompressedSize(length[0]);
+                    newEntry.setCrc(crc.getValue());
+                }
+                output.putNextEntry(newEntry);
+                output.write(buffer, 0, length[0]);
+                phase.addBytes(length[0]);
+            }
+        }
+    }
 }
@@ -0,0 +1,197 @@
+package jvmch;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This is the collection of timing and resource metrics of a single module run, split into phases.
+ *
+ * A module marks its phases as follows:
+ * <pre>
+ *     try (Metrics.Phase phase = context.getMetrics().phase("javac")) {
+ *         ...
+ *         phase.addBytes(size);
+ *     }
+ * </pre>
+ * As the phase is often not referenced in the body of the statement, the methods marking phases
+ * are annotated with {@code @SuppressWarnings("try")}. Phases of a module may run concurrently.
+ * The allocated memory is measured for the thread which runs a phase, so the memory allocated
+ * by the helper threads of a phase, if any, is not included.
+ *
+ * When metrics are not requested, modules are given {@link #DISABLED}, which measures nothing.
+ *
+ * @author Maxim Buzdalov
+ */
+final class Metrics {
+    static final Metrics DISABLED = new Metrics(null);
+
+    private static final Phase DISABLED_PHASE = new Phase(null, null);
+
+    private final String module;
+    private final List<Phase> phases = new ArrayList<>();
+    private long startNanos;
+    private long startAllocated;
+    private long nanos;
+    private long allocated;
+    private boolean started;
+    private boolean success;
+
+    Metrics(String module) {
+        this.module = module;
+    }
+
+    /**
+     * Starts measuring the module run as a whole.
+     */
+    void start() {
+        if (this != DISABLED) {
+            started = true;
+            startNanos = System.nanoTime();
+            startAllocated = allocatedBytes();
+        }
+    }
+
+    /**
+     * Finishes measuring the module run as a whole.
+     */
+    void finish(boolean success) {
+        if (this != DISABLED) {
+            nanos = System.nanoTime() - startNanos;
+            allocated = difference(allocatedBytes(), startAllocated);
+            this.success = success;
+        }
+    }
+
+    /**
+     * Returns whether the module run has been started.
+     */
+    boolean isStarted() {
+        return started;
+    }
+
+    /**
+     * Starts a phase with the given name. The phase ends when it is closed.
+     */
+    Phase phase(String name) {
+        if (this == DISABLED) {
+            return DISABLED_PHASE;
+        }
+        Phase phase = new Phase(this, name);
+        synchronized (phases) {
+            phases.add(phase);
+        }
+        return phase;
+    }
+
+    /**
+     * Returns the metrics as a single-line JSON object.
+     */
+    String toJson() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"module\":").append(Json.quote(module))
+                .append(",\"success\":").append(success)
+                .append(",\"millis\":").append(toMillis(nanos))
+                .append(",\"allocatedBytes\":").append(allocated)
+                .append(",\"phases\":[");
+        synchronized (phases) {
+            for (int i = 0; i < phases.size(); ++i) {
+                Phase phase = phases.get(i);
+                if (i > 0) {
+                    sb.append(',');
+                }
+                sb.append("{\"name\":").append(Json.quote(phase.name))
+                        .append(",\"millis\":").append(toMillis(phase.nanos))
+                        .append(",\"bytes\":").append(phase.bytes)
+                        .append(",\"allocatedBytes\":").append(phase.allocated)
+                        .append('}');
+            }
+        }
+        return sb.append("]}").toString();
+    }
+
+    /**
+     * This is a phase of a module run.
+     */
+    static final class Phase implements AutoCloseable {
+        private final Metrics owner;
+        private final String name;
+        private final long startNanos;
+        private final long startAllocated;
+        private long nanos;
+        private long allocated;
+        private long bytes;
+
+        private Phase(Metrics owner, String name) {
+            this.owner = owner;
+            this.name = name;
+            if (owner != null) {
+                startNanos = System.nanoTime();
+                startAllocated = allocatedBytes();
+            } else {
+                startNanos = 0;
+                startAllocated = 0;
+            }
+        }
+
+        /**
+         * Adds the given number to the bytes processed in this phase.
+         */
+        void addBytes(long count) {
+            if (owner != null) {
+                bytes += count;
+            }
+        }
+
+        @Override
+        public void close() {
+            if (owner != null) {
+                nanos = System.nanoTime() - startNanos;
+                allocated = difference(allocatedBytes(), startAllocated);
+            }
+        }
+    }
+
+    private static String toMillis(long nanos) {
+        return String.valueOf(nanos / 1000 / 1000.0);
+    }
+
+    private static long difference(long end, long start) {
+        return end < 0 || start < 0 ? -1 : end - start;
+    }
+
+    /**
+     * Returns the number of bytes allocated by the current thread since it has allocated the given number of bytes,
+     * or -1 if this cannot be measured.
+     */
+    static long allocatedBytesSince(long startAllocated) {
+        return difference(allocatedBytes(), startAllocated);
+    }
+
+    /**
+     * Returns the number of bytes allocated by the current thread so far, or -1 if this cannot be measured.
+     */
+    static long allocatedBytes() {
+        com.sun.management.ThreadMXBean threads = ThreadsHolder.THREADS;
+        return threads == null ? -1 : threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * This holds the bean measuring the allocated memory, so that the management classes are loaded
+     * only once the allocated memory is first measured, either for the metrics or for the admission control.
+     */
+    private static final class ThreadsHolder {
+        static final com.sun.management.ThreadMXBean THREADS = findThreadMXBean();
+    }
+
+    private static com.sun.management.ThreadMXBean findThreadMXBean() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+            if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()) {
+                return sunBean;
+            }
+        }
+        return null;
+    }
+}
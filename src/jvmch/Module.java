@@ -1,12 +1,37 @@
 package jvmch;
 
+import java.io.File;
+import java.io.PrintStream;
+import java.util.List;
+
 /**
  * This is an abstract class for a module of this project.
  *
+ * Modules never write to {@link System#out} or {@link System#err} directly,
+ * and access the files they produce and consume through the {@link Context} they are given,
+ * so that the same module can be run several times in a single JVM with its output attributed to the right request,
+ * and the files passed between modules of a chain can be kept in memory.
+ *
  * @author Maxim Buzdalov
  */
 public abstract class Module {
-    public abstract boolean checkArgs(String[] args, int argumentOffset);
-    public abstract boolean run(String[] args);
+    public abstract boolean checkArgs(String[] args, int argumentOffset, PrintStream err);
+    public abstract boolean run(String[] args, Context context);
     public abstract String getUsage();
+
+    /**
+     * Returns the files the module reads when run with the given arguments,
+     * or {@code null} if they cannot be known in advance.
+     */
+    public List<File> getInputFiles(String[] args) {
+        return null;
+    }
+
+    /**
+     * Returns the files the module writes when run with the given arguments,
+     * or {@code null} if they cannot be known in advance.
+     */
+    public List<File> getOutputFiles(String[] args) {
+        return null;
+    }
 }
@@ -0,0 +1,167 @@
+package jvmch;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This is what prepares and cleans up the work directories of compilations, keeping recursive deletion
+ * off the critical path.
+ *
+ * A directory which is not needed anymore is renamed to a hidden name in the same parent directory,
+ * which is a single cheap operation, and its contents are deleted on a background thread. The emptied directory
+ * is then kept in a pool of its parent directory, so that the next compilation there gets a directory
+ * by renaming a pooled one instead of creating it. The parent directory may well be on a tmpfs,
+ * such as {@code /dev/shm}, to keep the class files off the disk altogether.
+ *
+ * Before the process exits, {@link #awaitCleanup()} must be called to finish the deletions
+ * and to remove the pooled directories.
+ *
+ * @author Maxim Buzdalov
+ */
+final class WorkDirectories {
+    private static final String HIDDEN_PREFIX = ".jvmch-work-";
+    private static final int MAX_POOLED_PER_PARENT = 16;
+
+    private static final Map<File, Deque<File>> pools = new HashMap<>();
+    private static final ExecutorService cleaner = new ThreadPoolExecutor(0, 1, 1, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "jvmch work directory cleaner");
+                thread.setDaemon(true);
+                return thread;
+            });
+    private static int pending = 0;
+
+    private WorkDirectories() {}
+
+    /**
+     * Makes the given directory exist and be empty, discarding whatever was there before.
+     * A directory which is already empty, such as the one made by {@link #create(File)}, is kept as it is.
+     */
+    static void prepare(File dir) throws IOException {
+        String[] existing = dir.list();
+        if (existing != null && existing.length == 0) {
+            return;
+        }
+        discard(dir);
+        File pooled = takePooled(parentOf(dir));
+        if (pooled != null && pooled.renameTo(dir)) {
+            return;
+        }
+        if (pooled != null) {
+            discard(pooled);
+        }
+        if (!dir.mkdirs() && !dir.isDirectory()) {
+            throw new IOException("Cannot create the directory " + dir);
+        }
+    }
+
+    /**
+     * Creates a new empty directory with a unique name in the given parent directory,
+     * or in the default temporary directory if it is {@code null}.
+     */
+    static File create(File parent) throws IOException {
+        File root = (parent != null ? parent : new File(System.getProperty("java.io.tmpdir"))).getAbsoluteFile();
+        File pooled = takePooled(root);
+        if (pooled != null) {
+            File dir = new File(root, "jvmch-job" + UUID.randomUUID());
+            if (pooled.renameTo(dir)) {
+                return dir;
+            }
+            discard(pooled);
+        }
+        return Files.createTempDirectory(root.toPath(), "jvmch-job").toFile();
+    }
+
+    /**
+     * Removes the given directory, if it exists, from where it is, and deletes it in the background.
+     * If it cannot be moved away, it is deleted right away.
+     */
+    static void discard(File dir) {
+        if (!dir.exists()) {
+            return;
+        }
+        File parent = parentOf(dir);
+        File trash = new File(parent, HIDDEN_PREFIX + UUID.randomUUID());
+        if (!dir.isDirectory() || !dir.renameTo(trash)) {
+            JavaCompiler.rmrf(dir);
+            return;
+        }
+        synchronized (pools) {
+            ++pending;
+        }
+        cleaner.execute(() -> {
+            try {
+                File[] files = trash.listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        JavaCompiler.rmrf(file);
+                    }
+                }
+                String[] left = trash.list();
+                if (left == null || left.length != 0) {
+                    // Something could not be deleted, so it is tried once more, and the directory is not pooled.
+                    JavaCompiler.rmrf(trash);
+                    return;
+                }
+                boolean pooled = false;
+                synchronized (pools) {
+                    Deque<File> pool = pools.computeIfAbsent(parent, p -> new ArrayDeque<>());
+                    if (pool.size() < MAX_POOLED_PER_PARENT) {
+                        pool.addLast(trash);
+                        pooled = true;
+                    }
+                }
+                if (!pooled) {
+                    trash.delete();
+                }
+            } finally {
+                synchronized (pools) {
+                    --pending;
+                    pools.notifyAll();
+                }
+            }
+        });
+    }
+
+    /**
+     * Waits until all the directories discarded so far are deleted, and removes the pooled directories.
+     */
+    static void awaitCleanup() {
+        synchronized (pools) {
+            boolean interrupted = false;
+            while (pending > 0) {
+                try {
+                    pools.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            for (Deque<File> pool : pools.values()) {
+                for (File dir : pool) {
+                    dir.delete();
+                }
+                pool.clear();
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static File takePooled(File parent) {
+        synchronized (pools) {
+            Deque<File> pool = pools.get(parent);
+            return pool == null ? null : pool.pollFirst();
+        }
+    }
+
+    private static File parentOf(File dir) {
+        return dir.getAbsoluteFile().getParentFile();
+    }
+}
@@ -0,0 +1,279 @@
+package jvmch;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * This is a read-only view of a ZIP file based on its central directory.
+ *
+ * Unlike {@link java.util.zip.ZipInputStream}, it gives access to the compressed bytes of the entries
+ * together with their CRCs and sizes, so that the entries can be copied to another ZIP file as they are.
+ *
+ * ZIP64 archives, as well as multi-disk ones, are not supported, in which case a {@link ZipException} is thrown.
+ *
+ * @author Maxim Buzdalov
+ */
+final class ZipDirectory {
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_SIZE = 22;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+
+    /**
+     * This is an entry of a ZIP file as described in the central directory.
+     */
+    static final class Entry {
+        final String name;
+        final int versionMadeBy;
+        final int versionNeeded;
+        final int flags;
+        final int method;
+        final int dosTime;
+        final int crc;
+        final long compressedSize;
+        final long size;
+        final int externalAttributes;
+        final byte[] extra;
+        final long localHeaderOffset;
+
+        Entry(String name, int versionMadeBy, int versionNeeded, int flags, int method, int dosTime, int crc,
+              long compressedSize, long size, int externalAttributes, byte[] extra, long localHeaderOffset) {
+            this.name = name;
+            this.versionMadeBy = versionMadeBy;
+            this.versionNeeded = versionNeeded;
+            this.flags = flags;
+            this.method = method;
+            this.dosTime = dosTime;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.externalAttributes = externalAttributes;
+            this.extra = extra;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        boolean isDirectory() {
+            return name.endsWith("/");
+        }
+    }
+
+    private final ByteBuffer data;
+    private final List<Entry> entries;
+
+    ZipDirectory(ByteBuffer data) throws IOException {
+        this.data = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        this.entries = Collections.unmodifiableList(readEntries());
+    }
+
+    /**
+     * Opens the given file by mapping it into memory, so that only the parts actually used are read.
+     */
+    static ZipDirectory open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new ZipException("The file is too large to be processed without ZIP64: " + file);
+            }
+            return new ZipDirectory(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+    }
+
+    List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Returns the entry with the given name, or {@code null} if there is none.
+     */
+    Entry getEntry(String name) {
+        for (Entry entry : entries) {
+            if (entry.name.equals(name)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the bytes of the entry exactly as they are stored in the file.
+     * This method can be called concurrently from several threads.
+     */
+    ByteBuffer getRawData(Entry entry) throws IOException {
+        ByteBuffer local = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        long offset = entry.localHeaderOffset;
+        if (offset + LOCAL_HEADER_SIZE > local.limit() || local.getInt((int) offset) != LOCAL_HEADER_SIGNATURE) {
+            throw new ZipException("Invalid local header of entry " + entry.name);
+        }
+        long dataOffset = offset + LOCAL_HEADER_SIZE
+                + (local.getShort((int) offset + 26) & 0xffff)
+                + (local.getShort((int) offset + 28) & 0xffff);
+        if (dataOffset + entry.compressedSize > local.limit()) {
+            throw new ZipException("Truncated data of entry " + entry.name);
+        }
+        local.limit((int) (dataOffset + entry.compressedSize));
+        local.position((int) dataOffset);
+        return local.slice();
+    }
+
+    /**
+     * Returns the uncompressed contents of the entry.
+     * This method can be called concurrently from several threads.
+     */
+    byte[] getBytes(Entry entry) throws IOException {
+        try (EntryReader reader = new EntryReader()) {
+            byte[] result = reader.read(this, entry);
+            return result.length == entry.size ? result : Arrays.copyOf(result, (int) entry.size);
+        }
+    }
+
+    /**
+     * This is a reader of entry contents which reuses its buffers between entries.
+     * A reader is not thread-safe, but several readers may read from the same directory concurrently.
+     */
+    static final class EntryReader implements Closeable {
+        private final Inflater inflater = new Inflater(true);
+        private byte[] input = new byte[0];
+        private byte[] output = new byte[0];
+
+        /**
+         * Reads the uncompressed contents of the entry. The contents occupy the first {@code entry.size} bytes
+         * of the returned array, which stays valid until the next call to this method.
+         */
+        byte[] read(ZipDirectory directory, Entry entry) throws IOException {
+            ByteBuffer raw = directory.getRawData(entry);
+            if (entry.size > Integer.MAX_VALUE - 8) {
+                throw new ZipException("The entry is too large: " + entry.name);
+            }
+            int size = (int) entry.size;
+            if (output.length < size) {
+                output = new byte[(int) Math.max(size, Math.min(Integer.MAX_VALUE - 8L, output.length * 2L))];
+            }
+            if (entry.method == ZipEntry.STORED) {
+                if (entry.compressedSize != entry.size) {
+                    throw new ZipException("Invalid sizes of stored entry " + entry.name);
+                }
+                raw.get(output, 0, size);
+                return output;
+            }
+            if (entry.method != ZipEntry.DEFLATED) {
+                throw new ZipException("Unsupported compression method " + entry.method + " of entry " + entry.name);
+            }
+            // The extra zero byte at the end is required by the Inflater in the 'nowrap' mode.
+            int inputLength = raw.remaining() + 1;
+            if (input.length < inputLength) {
+                input = new byte[(int) Math.max(inputLength, Math.min(Integer.MAX_VALUE - 8L, input.length * 2L))];
+            }
+            raw.get(input, 0, inputLength - 1);
+            input[inputLength - 1] = 0;
+            inflater.reset();
+            inflater.setInput(input, 0, inputLength);
+            try {
+                int offset = 0;
+                while (offset < size) {
+                    int count = inflater.inflate(output, offset, size - offset);
+                    if (count == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    offset += count;
+                }
+                if (offset != size) {
+                    throw new ZipException("Invalid compressed data of entry " + entry.name);
+                }
+                return output;
+            } catch (DataFormatException e) {
+                throw new ZipException("Invalid compressed data of entry " + entry.name + ": " + e.getMessage());
+            }
+        }
+
+        @Override
+        public void close() {
+            inflater.end();
+        }
+    }
+
+    private List<Entry> readEntries() throws IOException {
+        int end = findEnd();
+        if (end >= ZIP64_LOCATOR_SIZE && data.getInt(end - ZIP64_LOCATOR_SIZE) == ZIP64_LOCATOR_SIGNATURE) {
+            throw new ZipException("ZIP64 archives are not supported");
+        }
+        int disk = data.getShort(end + 4) & 0xffff;
+        int directoryDisk = data.getShort(end + 6) & 0xffff;
+        int count = data.getShort(end + 10) & 0xffff;
+        long directorySize = data.getInt(end + 12) & 0xffffffffL;
+        long directoryOffset = data.getInt(end + 16) & 0xffffffffL;
+        if (disk != 0 || directoryDisk != 0 || count != (data.getShort(end + 8) & 0xffff)) {
+            throw new ZipException("Multi-disk archives are not supported");
+        }
+        if (directoryOffset + directorySize > end) {
+            throw new ZipException("Invalid central directory location");
+        }
+        List<Entry> result = new ArrayList<>(count);
+        int position = (int) directoryOffset;
+        for (int i = 0; i < count; ++i) {
+            if (position + CENTRAL_HEADER_SIZE > end || data.getInt(position) != CENTRAL_HEADER_SIGNATURE) {
+                throw new ZipException("Invalid central directory header");
+            }
+            int nameLength = data.getShort(position + 28) & 0xffff;
+            int extraLength = data.getShort(position + 30) & 0xffff;
+            int commentLength = data.getShort(position + 32) & 0xffff;
+            long compressedSize = data.getInt(position + 20) & 0xffffffffL;
+            long size = data.getInt(position + 24) & 0xffffffffL;
+            long localHeaderOffset = data.getInt(position + 42) & 0xffffffffL;
+            if (compressedSize == 0xffffffffL || size == 0xffffffffL || localHeaderOffset == 0xffffffffL) {
+                throw new ZipException("ZIP64 archives are not supported");
+            }
+            int nameOffset = position + CENTRAL_HEADER_SIZE;
+            if (nameOffset + nameLength + extraLength + commentLength > end) {
+                throw new ZipException("Invalid central directory header");
+            }
+            byte[] name = new byte[nameLength];
+            byte[] extra = new byte[extraLength];
+            ByteBuffer view = data.duplicate();
+            view.position(nameOffset);
+            view.get(name);
+            view.get(extra);
+            result.add(new Entry(new String(name, StandardCharsets.UTF_8),
+                    data.getShort(position + 4) & 0xffff,
+                    data.getShort(position + 6) & 0xffff,
+                    data.getShort(position + 8) & 0xffff,
+                    data.getShort(position + 10) & 0xffff,
+                    data.getInt(position + 12),
+                    data.getInt(position + 16),
+                    compressedSize, size,
+                    data.getInt(position + 38),
+                    extra, localHeaderOffset));
+            position = nameOffset + nameLength + extraLength + commentLength;
+        }
+        return result;
+    }
+
+    private int findEnd() throws ZipException {
+        // The end record is followed by a comment of at most 65535 bytes.
+        int lowest = Math.max(0, data.limit() - END_SIZE - 0xffff);
+        for (int position = data.limit() - END_SIZE; position >= lowest; --position) {
+            if (data.getInt(position) == END_SIGNATURE
+                    && position + END_SIZE + (data.getShort(position + 20) & 0xffff) == data.limit()) {
+                return position;
+            }
+        }
+        throw new ZipException("Not a ZIP file: the end of central directory record is not found");
+    }
+}
@@ -0,0 +1,353 @@
+package jvmch;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * This is a writer of ZIP files which can copy the entries of other ZIP files without recompressing them.
+ *
+ * The entries are written with their CRCs and sizes in the local headers, without data descriptors.
+ * As with {@link ZipDirectory}, ZIP64 is not supported: a {@link ZipException} is thrown
+ * when the result would need it.
+ *
+ * @author Maxim Buzdalov
+ */
+final class ZipWriter implements Closeable {
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int DATA_DESCRIPTOR_FLAG = 8;
+    private static final int UTF8_FLAG = 0x800;
+    private static final int VERSION_STORED = 10;
+    private static final int VERSION_DEFLATED = 20;
+    private static final byte[] NO_EXTRA = new byte[0];
+    private static final int MAX_ENTRIES = 0xffff;
+    private static final long MAX_OFFSET = 0xffffffffL;
+    private static final int PARALLEL_PREPARATION_THRESHOLD = 64;
+    private static final int PARALLEL_PREPARATIONS_PER_THREAD = 4;
+
+    private final OutputStream out;
+    private final ByteArrayOutputStream centralDirectory = new ByteArrayOutputStream();
+    private final byte[] header = new byte[46];
+    private final byte[] copyBuffer = new byte[0x10000];
+    private long offset = 0;
+    private int entryCount = 0;
+    private boolean closed = false;
+
+    ZipWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * This is what writes the entries of a ZIP file.
+     */
+    interface Contents {
+        void writeTo(ZipWriter writer) throws IOException;
+    }
+
+    /**
+     * Writes a ZIP file with the given contents to a temporary file next to the target, then moves it into place.
+     * This way, the target may as well be one of the files the contents are taken from.
+     */
+    static void write(File target, Contents contents) throws IOException {
+        Path targetPath = target.getAbsoluteFile().toPath();
+        Path temporary = Files.createTempFile(targetPath.getParent(), targetPath.getFileName() + ".writing", ".tmp");
+        try {
+            try (ZipWriter writer = new ZipWriter(new BufferedOutputStream(new FileOutputStream(temporary.toFile())))) {
+                contents.writeTo(writer);
+            }
+            Files.move(temporary, targetPath, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Copies an entry of another ZIP file, given its description and its raw data, without recompressing it.
+     */
+    void writeRaw(ZipDirectory.Entry entry, ByteBuffer rawData) throws IOException {
+        Events.JarEntryWrite event = new Events.JarEntryWrite();
+        event.begin();
+        byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+        writeHeaders(name, entry.versionMadeBy, entry.versionNeeded, entry.flags & ~DATA_DESCRIPTOR_FLAG,
+                entry.method, entry.dosTime, entry.crc, entry.compressedSize, entry.size,
+                entry.externalAttributes, entry.extra);
+        ByteBuffer data = rawData.duplicate();
+        while (data.hasRemaining()) {
+            int length = Math.min(data.remaining(), copyBuffer.length);
+            data.get(copyBuffer, 0, length);
+            out.write(copyBuffer, 0, length);
+        }
+        offset += entry.compressedSize;
+        commit(event, entry.name, entry.size, entry.compressedSize, true);
+    }
+
+    /**
+     * Writes a new entry with the given contents, compressing it as requested, with the current time.
+     */
+    void writeEntry(String name, byte[] data, int from, int length, Compression compression) throws IOException {
+        writeEntry(name, data, from, length, compression, toDosTime(System.currentTimeMillis()));
+    }
+
+    /**
+     * Writes a new entry with the given contents and the given time in the MS-DOS format, compressing it as requested.
+     */
+    void writeEntry(String name, byte[] data, int from, int length, Compression compression, int dosTime)
+            throws IOException {
+        Events.JarEntryWrite event = new Events.JarEntryWrite();
+        event.begin();
+        write(prepare(name, data, from, length, compression, dosTime), event);
+    }
+
+    /**
+     * This is a new entry which is compressed and ready to be written.
+     */
+    static final class PreparedEntry {
+        private final String name;
+        private final int method;
+        private final int dosTime;
+        private final int crc;
+        private final int size;
+        private final byte[] data;
+        private final int from;
+        private final int length;
+
+        private PreparedEntry(String name, int method, int dosTime, int crc, int size, byte[] data, int from, int length) {
+            this.name = name;
+            this.method = method;
+            this.dosTime = dosTime;
+            this.crc = crc;
+            this.size = size;
+            this.data = data;
+            this.from = from;
+            this.length = length;
+        }
+    }
+
+    /**
+     * This is what prepares a new entry, possibly on another thread.
+     */
+    interface Preparation {
+        PreparedEntry prepare() throws IOException;
+    }
+
+    /**
+     * Compresses the given contents of a new entry as requested. This method can be called concurrently
+     * from several threads. Stored entries refer to the given array, which must not change until they are written.
+     */
+    static PreparedEntry prepare(String name, byte[] data, int from, int length, Compression compression, int dosTime) {
+        CRC32 crc = new CRC32();
+        crc.update(data, from, length);
+        if (compression.isStored()) {
+            return new PreparedEntry(name, ZipEntry.STORED, dosTime, (int) crc.getValue(), length, data, from, length);
+        }
+        byte[] compressed = new byte[Math.max(64, length / 2)];
+        int compressedLength = 0;
+        Deflater deflater = new Deflater(compression.getLevel(), true);
+        try {
+            deflater.setInput(data, from, length);
+            deflater.finish();
+            while (!deflater.finished()) {
+                if (compressedLength == compressed.length) {
+                    compressed = Arrays.copyOf(compressed, compressed.length * 2);
+                }
+                compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+            }
+        } finally {
+            deflater.end();
+        }
+        return new PreparedEntry(name, ZipEntry.DEFLATED, dosTime, (int) crc.getValue(), length,
+                compressed, 0, compressedLength);
+    }
+
+    /**
+     * Writes the entries made by the given preparations in the order they are given.
+     *
+     * When there are enough entries and processors, the preparations are run in parallel on the common fork-join pool,
+     * in the manner of pigz. Only a limited number of them is run ahead of the entry being written,
+     * so that at most a few compressed entries per thread are kept in memory at any time.
+     */
+    void writeAll(List<? extends Preparation> preparations) throws IOException {
+        int parallelism = ForkJoinPool.getCommonPoolParallelism();
+        if (preparations.size() < PARALLEL_PREPARATION_THRESHOLD || parallelism < 2) {
+            for (Preparation preparation : preparations) {
+                Events.JarEntryWrite event = new Events.JarEntryWrite();
+                event.begin();
+                write(preparation.prepare(), event);
+            }
+            return;
+        }
+        int window = parallelism * PARALLEL_PREPARATIONS_PER_THREAD;
+        ArrayDeque<ForkJoinTask<PreparedEntry>> pending = new ArrayDeque<>(window);
+        Iterator<? extends Preparation> iterator = preparations.iterator();
+        try {
+            while (pending.size() < window && iterator.hasNext()) {
+                pending.addLast(submit(iterator.next()));
+            }
+            while (!pending.isEmpty()) {
+                ForkJoinTask<PreparedEntry> next = pending.removeFirst();
+                if (iterator.hasNext()) {
+                    pending.addLast(submit(iterator.next()));
+                }
+                Events.JarEntryWrite event = new Events.JarEntryWrite();
+                event.begin();
+                write(join(next), event);
+            }
+        } finally {
+            for (ForkJoinTask<PreparedEntry> task : pending) {
+                task.cancel(false);
+            }
+        }
+    }
+
+    private static ForkJoinTask<PreparedEntry> submit(Preparation preparation) {
+        return ForkJoinPool.commonPool().submit(preparation::prepare);
+    }
+
+    private static PreparedEntry join(ForkJoinTask<PreparedEntry> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing the entries");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private void write(PreparedEntry entry, Events.JarEntryWrite event) throws IOException {
+        int version = entry.method == ZipEntry.STORED ? VERSION_STORED : VERSION_DEFLATED;
+        writeHeaders(entry.name.getBytes(StandardCharsets.UTF_8), version, version, UTF8_FLAG, entry.method,
+                entry.dosTime, entry.crc, entry.length, entry.size, 0, NO_EXTRA);
+        out.write(entry.data, entry.from, entry.length);
+        offset += entry.length;
+        commit(event, entry.name, entry.size, entry.length, false);
+    }
+
+    private static void commit(Events.JarEntryWrite event, String name, long size, long compressedSize, boolean raw) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.entry = name;
+            event.size = size;
+            event.compressedSize = compressedSize;
+            event.raw = raw;
+            event.commit();
+        }
+    }
+
+    static int toDosTime(long millis) {
+        LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+        if (time.getYear() < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (time.getYear() - 1980) << 25
+                | time.getMonthValue() << 21
+                | time.getDayOfMonth() << 16
+                | time.getHour() << 11
+                | time.getMinute() << 5
+                | time.getSecond() >> 1;
+    }
+
+    private void writeHeaders(byte[] name, int versionMadeBy, int versionNeeded, int flags, int method,
+                              int dosTime, int crc, long compressedSize, long size,
+                              int externalAttributes, byte[] centralExtra) throws IOException {
+        if (entryCount == MAX_ENTRIES || offset > MAX_OFFSET || compressedSize > MAX_OFFSET || size > MAX_OFFSET) {
+            throw new ZipException("The resulting ZIP file would require ZIP64, which is not supported");
+        }
+        ++entryCount;
+
+        putInt(0, CENTRAL_HEADER_SIGNATURE);
+        putShort(4, versionMadeBy);
+        putShort(6, versionNeeded);
+        putShort(8, flags);
+        putShort(10, method);
+        putInt(12, dosTime);
+        putInt(16, crc);
+        putInt(20, (int) compressedSize);
+        putInt(24, (int) size);
+        putShort(28, name.length);
+        putShort(30, centralExtra.length);
+        putShort(32, 0); // comment length
+        putShort(34, 0); // disk number
+        putShort(36, 0); // internal attributes
+        putInt(38, externalAttributes);
+        putInt(42, (int) offset);
+        centralDirectory.write(header, 0, 46);
+        centralDirectory.write(name);
+        centralDirectory.write(centralExtra);
+
+        // The local header shares the fields from the version needed to the name length with the central header.
+        putInt(2, LOCAL_HEADER_SIGNATURE);
+        out.write(header, 2, 28);
+        out.write(0); // extra length
+        out.write(0);
+        out.write(name);
+        offset += 30 + name.length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            long directoryOffset = offset;
+            if (directoryOffset > MAX_OFFSET) {
+                throw new ZipException("The resulting ZIP file would require ZIP64, which is not supported");
+            }
+            centralDirectory.writeTo(out);
+            putInt(0, END_SIGNATURE);
+            putShort(4, 0); // disk number
+            putShort(6, 0); // disk with the central directory
+            putShort(8, entryCount);
+            putShort(10, entryCount);
+            putInt(12, centralDirectory.size());
+            putInt(16, (int) directoryOffset);
+            putShort(20, 0); // comment length
+            out.write(header, 0, 22);
+        } finally {
+            out.close();
+        }
+    }
+
+    private void putShort(int index, int value) {
+        header[index] = (byte) value;
+        header[index + 1] = (byte) (value >>> 8);
+    }
+
+    private void putInt(int index, int value) {
+        header[index] = (byte) value;
+        header[index + 1] = (byte) (value >>> 8);
+        header[index + 2] = (byte) (value >>> 16);
+        header[index + 3] = (byte) (value >>> 24);
+    }
+}
@@ -0,0 +1,7 @@
+package strange.error.file.name;
+
+class main {
+    public static void main(String[] args) {
+        System.out.println(queer.pkg.title.data.value + com.funny.unexpected_name.which.is.very.lengthy.print9.class.getSimpleName());
+    }
+}
@@ -0,0 +1,5 @@
+package queer.pkg.title;
+
+public class data {
+    public static int value = 10;
+}
@@ -0,0 +1,16 @@
+Running test 01 [public class in root package]...
+  Cleaning up... done.
+  Compiling aplusb.java using JVMCH... done.
+  Running the result... prints 7 as expected
+  Cleaning up... done.
+Running test 02 [public class in non-root package]...
+  Cleaning up... done.
+  Compiling print8.java using JVMCH... done.
+  Running the result... prints 8 as expected
+  Cleaning up... done.
+Running test 03 [non-public class in non-root package with mismatching file name]...
+  Cleaning up... done.
+  Compiling print8.java => print9.class using JVMCH... done.
+  Running the result... prints 9 as expected
+  Cleaning up... done.
+
@@ -0,0 +1,3 @@
+class data {
+    public static final int value = 10;
+}
@@ -0,0 +1,303 @@
+class data {
+    static class Part00 {
+        static final int value = 0;
+    }
+    static class Part01 {
+        static final int value = 1;
+    }
+    static class Part02 {
+        static final int value = 2;
+    }
+    static class Part03 {
+        static final int value = 3;
+    }
+    static class Part04 {
+        static final int value = 4;
+    }
+    static class Part05 {
+        static final int value = 5;
+    }
+    static class Part06 {
+        static final int value = 6;
+    }
+    static class Part07 {
+        static final int value = 7;
+    }
+    static class Part08 {
+        static final int value = 8;
+    }
+    static class Part09 {
+        static final int value = 9;
+    }
+    static class Part10 {
+        static final int value = 10;
+    }
+    static class Part11 {
+        static final int value = 11;
+    }
+    static class Part12 {
+        static final int value = 12;
+    }
+    static class Part13 {
+        static final int value = 13;
+    }
+    static class Part14 {
+        static final int value = 14;
+    }
+    static class Part15 {
+        static final int value = 15;
+    }
+    static class Part16 {
+        static final int value = 16;
+    }
+    static class Part17 {
+        static final int value = 17;
+    }
+    static class Part18 {
+        static final int value = 18;
+    }
+    static class Part19 {
+        static final int value = 19;
+    }
+    static class Part20 {
+        static final int value = 20;
+    }
+    static class Part21 {
+        static final int value = 21;
+    }
+    static class Part22 {
+        static final int value = 22;
+    }
+    static class Part23 {
+        static final int value = 23;
+    }
+    static class Part24 {
+        static final int value = 24;
+    }
+    static class Part25 {
+        static final int value = 25;
+    }
+    static class Part26 {
+        static final int value = 26;
+    }
+    static class Part27 {
+        static final int value = 27;
+    }
+    static class Part28 {
+        static final int value = 28;
+    }
+    static class Part29 {
+        static final int value = 29;
+    }
+    static class Part30 {
+        static final int value = 30;
+    }
+    static class Part31 {
+        static final int value = 31;
+    }
+    static class Part32 {
+        static final int value = 32;
+    }
+    static class Part33 {
+        static final int value = 33;
+    }
+    static class Part34 {
+        static final int value = 34;
+    }
+    static class Part35 {
+        static final int value = 35;
+    }
+    static class Part36 {
+        static final int value = 36;
+    }
+    static class Part37 {
+        static final int value = 37;
+    }
+    static class Part38 {
+        static final int value = 38;
+    }
+    static class Part39 {
+        static final int value = 39;
+    }
+    static class Part40 {
+        static final int value = 40;
+    }
+    static class Part41 {
+        static final int value = 41;
+    }
+    static class Part42 {
+        static final int value = 42;
+    }
+    static class Part43 {
+        static final int value = 43;
+    }
+    static class Part44 {
+        static final int value = 44;
+    }
+    static class Part45 {
+        static final int value = 45;
+    }
+    static class Part46 {
+        static final int value = 46;
+    }
+    static class Part47 {
+        static final int value = 47;
+    }
+    static class Part48 {
+        static final int value = 48;
+    }
+    static class Part49 {
+        static final int value = 49;
+    }
+    static class Part50 {
+        static final int value = 50;
+    }
+    static class Part51 {
+        static final int value = 51;
+    }
+    static class Part52 {
+        static final int value = 52;
+    }
+    static class Part53 {
+        static final int value = 53;
+    }
+    static class Part54 {
+        static final int value = 54;
+    }
+    static class Part55 {
+        static final int value = 55;
+    }
+    static class Part56 {
+        static final int value = 56;
+    }
+    static class Part57 {
+        static final int value = 57;
+    }
+    static class Part58 {
+        static final int value = 58;
+    }
+    static class Part59 {
+        static final int value = 59;
+    }
+    static class Part60 {
+        static final int value = 60;
+    }
+    static class Part61 {
+        static final int value = 61;
+    }
+    static class Part62 {
+        static final int value = 62;
+    }
+    static class Part63 {
+        static final int value = 63;
+    }
+    static class Part64 {
+        static final int value = 64;
+    }
+    static class Part65 {
+        static final int value = 65;
+    }
+    static class Part66 {
+        static final int value = 66;
+    }
+    static class Part67 {
+        static final int value = 67;
+    }
+    static class Part68 {
+        static final int value = 68;
+    }
+    static class Part69 {
+        static final int value = 69;
+    }
+    static class Part70 {
+        static final int value = 70;
+    }
+    static class Part71 {
+        static final int value = 71;
+    }
+    static class Part72 {
+        static final int value = 72;
+    }
+    static class Part73 {
+        static final int value = 73;
+    }
+    static class Part74 {
+        static final int value = 74;
+    }
+    static class Part75 {
+        static final int value = 75;
+    }
+    static class Part76 {
+        static final int value = 76;
+    }
+    static class Part77 {
+        static final int value = 77;
+    }
+    static class Part78 {
+        static final int value = 78;
+    }
+    static class Part79 {
+        static final int value = 79;
+    }
+    static class Part80 {
+        static final int value = 80;
+    }
+    static class Part81 {
+        static final int value = 81;
+    }
+    static class Part82 {
+        static final int value = 82;
+    }
+    static class Part83 {
+        static final int value = 83;
+    }
+    static class Part84 {
+        static final int value = 84;
+    }
+    static class Part85 {
+        static final int value = 85;
+    }
+    static class Part86 {
+        static final int value = 86;
+    }
+    static class Part87 {
+        static final int value = 87;
+    }
+    static class Part88 {
+        static final int value = 88;
+    }
+    static class Part89 {
+        static final int value = 89;
+    }
+    static class Part90 {
+        static final int value = 90;
+    }
+    static class Part91 {
+        static final int value = 91;
+    }
+    static class Part92 {
+        static final int value = 92;
+    }
+    static class Part93 {
+        static final int value = 93;
+    }
+    static class Part94 {
+        static final int value = 94;
+    }
+    static class Part95 {
+        static final int value = 95;
+    }
+    static class Part96 {
+        static final int value = 96;
+    }
+    static class Part97 {
+        static final int value = 97;
+    }
+    static class Part98 {
+        static final int value = 98;
+    }
+    static class Part99 {
+        static final int value = 99;
+    }
+    public static final int value = Part04.value + Part06.value;
+}
@@ -0,0 +1,5 @@
+class unused {
+    static int value() {
+        return new data().hashCode();
+    }
+}
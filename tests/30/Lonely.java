@@ -0,0 +1,4 @@
+public class Lonely {
+    static class Inner {
+    }
+}
@@ -0,0 +1,5 @@
+public class Other {
+    public static int value() {
+        return 1;
+    }
+}
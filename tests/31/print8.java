@@ -0,0 +1,7 @@
+package com.funny.unexpected_name.which.is.very.lengthy;
+
+class print9 {
+    public static void main(String[] args) {
+        System.out.println(9);
+    }
+}
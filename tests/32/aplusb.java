@@ -0,0 +1,10 @@
+import java.io.*;
+import java.util.*;
+
+public class aplusb {
+    public static void main(String[] args) throws IOException {
+        try (Scanner in = new Scanner(System.in)) {
+            System.out.println(in.nextInt() + in.nextInt());
+        }
+    }
+}
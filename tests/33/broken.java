@@ -0,0 +1,52 @@
+public class broken {
+    int f1() { return undefined1; }
+    int f2() { return undefined2; }
+    int f3() { return undefined3; }
+    int f4() { return undefined4; }
+    int f5() { return undefined5; }
+    int f6() { return undefined6; }
+    int f7() { return undefined7; }
+    int f8() { return undefined8; }
+    int f9() { return undefined9; }
+    int f10() { return undefined10; }
+    int f11() { return undefined11; }
+    int f12() { return undefined12; }
+    int f13() { return undefined13; }
+    int f14() { return undefined14; }
+    int f15() { return undefined15; }
+    int f16() { return undefined16; }
+    int f17() { return undefined17; }
+    int f18() { return undefined18; }
+    int f19() { return undefined19; }
+    int f20() { return undefined20; }
+    int f21() { return undefined21; }
+    int f22() { return undefined22; }
+    int f23() { return undefined23; }
+    int f24() { return undefined24; }
+    int f25() { return undefined25; }
+    int f26() { return undefined26; }
+    int f27() { return undefined27; }
+    int f28() { return undefined28; }
+    int f29() { return undefined29; }
+    int f30() { return undefined30; }
+    int f31() { return undefined31; }
+    int f32() { return undefined32; }
+    int f33() { return undefined33; }
+    int f34() { return undefined34; }
+    int f35() { return undefined35; }
+    int f36() { return undefined36; }
+    int f37() { return undefined37; }
+    int f38() { return undefined38; }
+    int f39() { return undefined39; }
+    int f40() { return undefined40; }
+    int f41() { return undefined41; }
+    int f42() { return undefined42; }
+    int f43() { return undefined43; }
+    int f44() { return undefined44; }
+    int f45() { return undefined45; }
+    int f46() { return undefined46; }
+    int f47() { return undefined47; }
+    int f48() { return undefined48; }
+    int f49() { return undefined49; }
+    int f50() { return undefined50; }
+}
@@ -0,0 +1,5 @@
+class lib {
+    static int value() {
+        return 5;
+    }
+}
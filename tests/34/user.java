@@ -0,0 +1,5 @@
+public class user {
+    public static void main(String[] args) {
+        System.out.println(lib.value());
+    }
+}
@@ -0,0 +1,5 @@
+public class Base {
+    static int twice(int value) {
+        return 2 * value;
+    }
+}
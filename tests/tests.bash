@@ -253,6 +253,526 @@ function run_test_14 {
     echo -n "  Cleaning up..." && rm -rf temp $JFN && echo " done."
 }
 
+function run_test_15 {
+    local JFN=jarfilename.jar
+    echo "Running test 15 [serving requests from the standard input and from a port]..." && \
+    echo -n "  Cleaning up..." && rm -rf temp server.txt $JFN && echo " done." && \
+    echo -n "  Sending two requests to JVMCH..." && \
+    local RESULT=`printf "%s\n%s\n" \
+        "compile-java-files temp $JFN aplusb.java --then annotate-jar-with-main-class-attribute $JFN $JFN --verbose" \
+        "no-such-module" | java -jar ../$JAR serve-requests` && echo " done." && \
+    local EXPECTED=`printf "%s\n%s\n%s\n%s\n" \
+        "| Setting the Main-Class attribute to aplusb" "exit 0" \
+        "| Error: command line argument no. 1, which is 'no-such-module' does not name a module." "exit 1"` && \
+    echo -n "  Checking the responses... " && assert_equals "$EXPECTED" "$RESULT" "responses are as expected" && \
+    echo -n "  Running the result... " && local RESULT=`echo "3 4" | java -jar $JFN` && \
+    local EXPECTED=`echo "7"` && assert_equals "$EXPECTED" "$RESULT" "prints 7 as expected" || return 1
+    echo -n "  Starting JVMCH listening at any free port..."
+    java -jar ../$JAR serve-requests --port 0 > server.txt 2>&1 &
+    local SERVER=$!
+    local PORT=""
+    for i in `seq 1 300`; do
+        PORT=`sed -n 's/^Listening at port //p' server.txt`
+        [ -n "$PORT" ] && break
+        sleep 0.1
+    done
+    echo " done." && \
+    echo -n "  Sending a request to the port it reports... " && \
+    local RESULT=`exec 3<>/dev/tcp/127.0.0.1/$PORT && echo "no-such-module" >&3 && \
+        while read -r LINE <&3; do echo "$LINE"; [ "${LINE#exit }" != "$LINE" ] && break; done`
+    kill $SERVER && wait $SERVER 2> /dev/null
+    local EXPECTED=`printf "%s\n%s\n" \
+        "| Error: command line argument no. 1, which is 'no-such-module' does not name a module." "exit 1"` && \
+    assert_equals "$EXPECTED" "$RESULT" "the response is as expected" && \
+    echo -n "  Cleaning up..." && rm -rf temp server.txt $JFN && echo " done."
+}
+
+function run_test_16 {
+    local JFN=jarfilename.jar
+    echo "Running test 16 [compiling in memory]..." && \
+    echo -n "  Cleaning up..." && rm -rf temp $JFN && echo " done." && \
+    echo -n "  Compiling [print8.java nontrivial/data.java main.java] in memory using JVMCH..." && \
+    java -jar ../$JAR \
+        compile-java-files temp $JFN --in-memory print8.java nontrivial/data.java main.java \
+        --then annotate-jar-with-main-class-attribute $JFN $JFN --use-first \
+        && echo " done." && \
+    echo -n "  Checking the temporary directory is not created... " && [ ! -e temp ] && echo "not created as expected" && \
+    echo -n "  Running the result... " && local RESULT=`java -cp $JFN strange.error.file.name.main` && \
+    local EXPECTED=`echo "10print9"` && assert_equals "$EXPECTED" "$RESULT" "prints 10print9 as expected" && \
+    echo -n "  Cleaning up..." && rm -rf temp $JFN && echo " done."
+}
+
+function run_test_17 {
+    local JFN=jarfilename.jar
+    echo "Running test 17 [binary nonsense instead of sources, compiling in memory]..." && \
+    echo -n "  Cleaning up..." && rm -rf temp $JFN && echo " done." && \
+    echo -n "  Compiling source.java in memory using JVMCH..." && \
+    local RESULT=`expect_exit_code 1 java -jar ../$JAR \
+        compile-java-files temp $JFN --in-memory source.java \
+        --then annotate-jar-with-main-class-attribute $JFN $JFN` && \
+    assert_contains "$UNMAPPABLE_CHARACTER" "$RESULT" " found no sources as expected." && \
+    echo -n "  Cleaning up..." && rm -rf temp $JFN && echo " done."
+}
+
+function run_test_18 {
+    local JFN=jarfilename.jar
+    echo "Running test 18 [compilation cache]..." && \
+    echo -n "  Cleaning up..." && rm -rf temp cache $JFN && echo " done." && \
+    echo -n "  Compiling aplusb.java using JVMCH with a cache..." && \
+    java -jar ../$JAR compile-java-files temp $JFN --cache cache aplusb.java && echo " done." && \
+    echo -n "  Checking the cache contents... " && local RESULT=`ls cache | wc -l` && \
+    assert_equals "1" "$RESULT" "contains one entry as expected" && \
+    echo -n "  Compiling aplusb.java again..." && rm $JFN && \
+    java -jar ../$JAR compile-java-files temp $JFN --cache cache aplusb.java \
+        --then annotate-jar-with-main-class-attribute $JFN $JFN && echo " done." && \
+    echo -n "  Checking the cache contents... " && local RESULT=`ls cache | wc -l` && \
+    assert_equals "1" "$RESULT" "contains one entry as expected" && \
+    echo -n "  Running the result... " && local RESULT=`echo "3 4" | java -jar $JFN` && \
+    local EXPECTED=`echo "7"` && assert_equals "$EXPECTED" "$RESULT" "prints 7 as expected" && \
+    echo -n "  Compiling aplusb.java in memory with the cache size limit of zero..." && \
+    java -jar ../$JAR compile-java-files temp $JFN --in-memory --cache cache --cache-size-limit 0 aplusb.java && echo " done." && \
+    echo -n "  Checking the cache contents... " && local RESULT=`ls cache | wc -l` && \
+    assert_equals "0" "$RESULT" "is empty as expected" && \
+    echo -n "  Cleaning up..." && rm -rf temp cache $JFN && echo " done."
+}
+
+function run_test_19 {
+    echo "Running test 19 [batch compilation]..." && \
+    echo -n "  Cleaning up..." && rm -rf a.jar b.jar c.jar d.jar manifest.txt report.txt && echo " done." && \
+    printf "%s\n%s\n\n%s\n" "a.jar aplusb.java" "# a comment" "b.jar --in-memory print8.java" > manifest.txt && \
+    printf "%s\n%s\n" "c.jar source.java" "d.jar --deadline 0.001 aplusb.java" >> manifest.txt && \
+    echo -n "  Compiling the batch using JVMCH..." && \
+    java -jar ../$JAR compile-java-batch manifest.txt report.txt --threads 2 --annotate && echo " done." && \
+    echo -n "  Checking the report... " && local RESULT=`sed 's/"millis":[0-9]*,//;s/"output":".*"}/"output":...}/' report.txt` && \
+    local EXPECTED=`printf "%s\n%s\n%s\n%s\n" \
+        '{"line":1,"jar":"a.jar","success":true,"cancelled":false,"output":...}' \
+        '{"line":4,"jar":"b.jar","success":true,"cancelled":false,"output":...}' \
+        '{"line":5,"jar":"c.jar","success":false,"cancelled":false,"output":...}' \
+        '{"line":6,"jar":"d.jar","success":false,"cancelled":true,"output":...}'` && \
+    assert_equals "$EXPECTED" "$RESULT" "contains the expected results" && \
+    echo -n "  Running the results... " && local RESULT=`echo "3 4" | java -jar a.jar; java -jar b.jar` && \
+    local EXPECTED=`printf "7\n9\n"` && assert_equals "$EXPECTED" "$RESULT" "prints 7 and 9 as expected" && \
+    echo -n "  Compiling the batch where no temporary directory can be created using JVMCH..." && \
+    java -jar ../$JAR compile-java-batch manifest.txt report.txt --threads 2 --temp-root aplusb.java && echo " done." && \
+    echo -n "  Checking the report... " && local RESULT=`sed 's/"millis":[0-9]*,//;s/"output":".*"}/"output":...}/' report.txt` && \
+    local EXPECTED=`printf "%s\n%s\n%s\n%s\n" \
+        '{"line":1,"jar":"a.jar","success":false,"cancelled":false,"output":...}' \
+        '{"line":4,"jar":"b.jar","success":false,"cancelled":false,"output":...}' \
+        '{"line":5,"jar":"c.jar","success":false,"cancelled":false,"output":...}' \
+        '{"line":6,"jar":"d.jar","success":false,"cancelled":false,"output":...}'` && \
+    assert_equals "$EXPECTED" "$RESULT" "reports every job as failed" && \
+    echo -n "  Cleaning up..." && rm -rf a.jar b.jar c.jar d.jar manifest.txt report.txt && echo " done."
+}
+
+function run_test_20 {
+    local JFN1=jf1.jar
+    local JFN2=jf2.jar
+    local JFN=jf.jar
+    echo "Running test 20 [merging JAR files with duplicate entries]..." && \
+    echo -n "  Cleaning up..." && rm -rf temp z64 $JFN $JFN1 $JFN2 && echo " done." && \
+    echo -n "  Compiling everything using JVMCH..." && \
+    java -jar ../$JAR \
+        compile-java-files temp $JFN1 data.java \
+        --then compile-java-files temp $JFN2 data.java main.java \
+        --then merge-jar-files $JFN $JFN1 $JFN2 $JFN1 \
+        --then annotate-jar-with-main-class-attribute $JFN $JFN \
+        && echo " done." && \
+    echo -n "  Running the result... " && local RESULT=`java -jar $JFN` && \
+    local EXPECTED=`echo "10"` && assert_equals "$EXPECTED" "$RESULT" "prints 10 as expected" && \
+    if ! which zip > /dev/null 2>&1; then
+        echo "  Skipped merging into a ZIP64 source, as there is no zip to make one."
+    else
+        echo -n "  Making a ZIP64 file with the main class only..." && rm -rf $JFN z64 && mkdir z64 && \
+        unzip -q $JFN2 main.class -d z64 && ( cd z64 && zip -q -fz ../$JFN main.class ) && rm -rf z64 && echo " done." && \
+        echo -n "  Merging it with the data class into itself on disk using JVMCH..." && \
+        java -jar ../$JAR merge-jar-files $JFN $JFN $JFN1 && \
+        java -jar ../$JAR annotate-jar-with-main-class-attribute $JFN $JFN && echo " done." && \
+        echo -n "  Running the result... " && local RESULT=`java -jar $JFN` && \
+        assert_equals "$EXPECTED" "$RESULT" "prints 10 as expected"
+    fi && \
+    echo -n "  Cleaning up..." && rm -rf temp z64 $JFN $JFN1 $JFN2 && echo " done."
+}
+
+function run_test_21 {
+    local JFN=jarfilename.jar
+    local JFN2=jarfilename2.jar
+    echo "Running test 21 [annotating an already annotated JAR file]..." && \
+    echo -n "  Cleaning up..." && rm -rf temp $JFN $JFN2 && echo " done." && \
+    echo -n "  Compiling aplusb.java using JVMCH..." && \
+    java -jar ../$JAR \
+        compile-java-files temp $JFN aplusb.java \
+        --then annotate-jar-with-main-class-attribute $JFN $JFN \
+        && echo " done." && \
+    echo -n "  Annotating the result again..." && local RESULT=`java -jar ../$JAR \
+        annotate-jar-with-main-class-attribute $JFN $JFN2 --verbose` && \
+    assert_equals "This file already has Main-Class set to aplusb" "$RESULT" " reports the existing attribute as expected" && \
+    echo -n "  Comparing the files... " && cmp $JFN $JFN2 && echo "equal as expected" && \
+    echo -n "  Annotating the result in place with overwriting..." && local RESULT=`java -jar ../$JAR \
+        annotate-jar-with-main-class-attribute $JFN2 $JFN2 --verbose --force-overwrite` && \
+    assert_equals "Setting the Main-Class attribute to aplusb" "$RESULT" " sets the attribute as expected" && \
+    echo -n "  Running the result... " && local RESULT=`echo "3 4" | java -jar $JFN2` && \
+    local EXPECTED=`echo "7"` && assert_equals "$EXPECTED" "$RESULT" "prints 7 as expected" && \
+    echo -n "  Cleaning up..." && rm -rf temp $JFN $JFN2 && echo " done."
+}
+
+function run_test_22 {
+    local JFN=jf.jar
+    echo "Running test 22 [passing a JAR file between chained commands in memory]..." && \
+    echo -n "  Cleaning up..." && rm -rf temp $JFN && echo " done." && \
+    echo -n "  Compiling everything using JVMCH..." && \
+    java -jar ../$JAR \
+        compile-java-files temp $JFN data.java main.java \
+        --then merge-jar-files $JFN $JFN $JFN \
+        --then annotate-jar-with-main-class-attribute $JFN $JFN \
+        && echo " done." && \
+    echo -n "  Running the result... " && local RESULT=`java -jar $JFN` && \
+    local EXPECTED=`echo "10"` && assert_equals "$EXPECTED" "$RESULT" "prints 10 as expected" && \
+    echo -n "  Checking that nothing else is left..." && local FILES=`ls` && \
+    local EXPECTED_FILES=`printf "data.java\n$JFN\nmain.java"` && \
+    assert_equals "$EXPECTED_FILES" "$FILES" "contains only the sources and the result" && \
+    echo -n "  Cleaning up..." && rm -rf temp $JFN && echo " done."
+}
+
+function run_test_23 {
+    local JFN1=jf1.jar
+    local JFN2=jf2.jar
+    local JFN=jf.jar
+    echo "Running test 23 [running independent commands of a chain concurrently]..." && \
+    echo -n "  Cleaning up..." && rm -rf temp1 temp2 $JFN $JFN1 $JFN2 && echo " done." && \
+    echo -n "  Compiling everything using JVMCH..." && \
+    java -jar ../$JAR \
+        compile-java-files temp1 $JFN1 data.java \
+        --then compile-java-files temp2 $JFN2 main.java \
+        --then merge-jar-files $JFN $JFN1 $JFN2 \
+        --then annotate-jar-with-main-class-attribute $JFN $JFN \
+        && echo " done." && \
+    echo -n "  Running the result... " && local RESULT=`java -jar $JFN` && \
+    local EXPECTED=`echo "10"` && assert_equals "$EXPECTED" "$RESULT" "prints 10 as expected" && \
+    echo -n "  Cleaning up..." && rm -rf temp1 temp2 $JFN $JFN1 $JFN2 && echo " done." && \
+    echo -n "  Compiling with an error using JVMCH..." && \
+    ! java -jar ../$JAR \
+        compile-java-files temp1 $JFN1 broken.java \
+        --then compile-java-files temp2 $JFN2 main.java \
+        --then merge-jar-files $JFN $JFN1 $JFN2 2> /dev/null \
+        && echo " failed as expected." && \
+    echo -n "  Checking that the merge has not run..." && [ ! -e $JFN ] && echo " done." && \
+    echo -n "  Cleaning up..." && rm -rf temp1 temp2 $JFN $JFN1 $JFN2 && echo " done."
+}
+
+function run_test_24 {
+    local JFN=jarfilename.jar
+    local METRICS=metrics.json
+    echo "Running test 24 [writing metrics of the commands run]..." && \
+    echo -n "  Cleaning up..." && rm -rf temp $JFN $METRICS && echo " done." && \
+    echo -n "  Compiling aplusb.java using JVMCH..." && \
+    java -jar ../$JAR --metrics $METRICS \
+        compile-java-files temp $JFN aplusb.java \
+        --then annotate-jar-with-main-class-attribute $JFN $JFN \
+        && echo " done." && \
+    echo -n "  Running the result... " && local RESULT=`echo "3 4" | java -jar $JFN` && \
+    local EXPECTED=`echo "7"` && assert_equals "$EXPECTED" "$RESULT" "prints 7 as expected" && \
+    echo -n "  Checking the metrics... " && \
+    local MODULES=`sed 's/^{"module":"\([^"]*\)","success":\([a-z]*\),.*$/\1 \2/' $METRICS` && \
+    local EXPECTED_MODULES=`printf "compile-java-files true\nannotate-jar-with-main-class-attribute true"` && \
+    assert_equals "$EXPECTED_MODULES" "$MODULES" "has a line for every command" && \
+    echo -n "  Checking the phases... " && \
+    grep -q '"name":"javac"' $METRICS && grep -q '"name":"scan"' $METRICS && echo "found javac and scan" && \
+    echo -n "  Cleaning up..." && rm -rf temp $JFN $METRICS && echo " done."
+}
+
+function run_test_25 {
+    local JFN=jarfilename.jar
+    local JSA=jarfilename.jsa
+    echo "Running test 25 [creating a class data sharing archive]..." && \
+    if ! java -XX:ArchiveClassesAtExit=/dev/null -version > /dev/null 2>&1; then
+        echo "  Skipped, as this Java runtime does not support -XX:ArchiveClassesAtExit, which needs Java 13 or newer."
+        return 0
+    fi && \
+    echo -n "  Cleaning up..." && rm -rf temp $JFN $JSA && echo " done." && \
+    echo -n "  Compiling aplusb.java using JVMCH..." && \
+    java -jar ../$JAR \
+        compile-java-files temp $JFN aplusb.java \
+        --then annotate-jar-with-main-class-attribute $JFN $JFN \
+        --then create-cds-archive $JFN --input input.txt \
+        && echo " done." && \
+    echo -n "  Checking the archive..." && [ -f $JSA ] && echo " exists." && \
+    echo -n "  Running the result with the archive... " && \
+    local RESULT=`echo "3 4" | java -XX:SharedArchiveFile=$JSA -Xshare:on -jar $JFN` && \
+    local EXPECTED=`echo "7"` && assert_equals "$EXPECTED" "$RESULT" "prints 7 as expected" && \
+    echo -n "  Cleaning up..." && rm -rf temp $JFN $JSA && echo " done."
+}
+
+function run_test_26 {
+    local JFN=jarfilename.jar
+    local DFN=deflated.jar
+    echo "Running test 26 [choosing the compression of the resulting JAR files]..." && \
+    echo -n "  Cleaning up..." && rm -rf temp $JFN $DFN && echo " done." && \
+    echo -n "  Compiling aplusb.java using JVMCH without compression..." && \
+    java -jar ../$JAR \
+        compile-java-files temp $JFN --compression store aplusb.java \
+        --then annotate-jar-with-main-class-attribute $JFN $JFN --compression store \
+        && echo " done." && \
+    echo -n "  Running the result... " && local RESULT=`echo "3 4" | java -jar $JFN` && \
+    local EXPECTED=`echo "7"` && assert_equals "$EXPECTED" "$RESULT" "prints 7 as expected" && \
+    echo -n "  Checking that all entries are stored... " && \
+    local METHODS=`unzip -Z -v $JFN | sed -n 's/^ *compression method: *//p' | sort -u` && \
+    assert_equals "none (stored)" "$METHODS" "they are" && \
+    echo -n "  Deflating the result using JVMCH..." && \
+    java -jar ../$JAR annotate-jar-with-main-class-attribute $JFN $DFN --force-overwrite --compression 9 \
+        && echo " done." && \
+    echo -n "  Running the deflated result... " && local RESULT=`echo "3 4" | java -jar $DFN` && \
+    assert_equals "$EXPECTED" "$RESULT" "prints 7 as expected" && \
+    echo -n "  Checking that the classes are deflated... " && \
+    local METHODS=`unzip -Z -v $DFN aplusb.class | sed -n 's/^ *compression method: *//p'` && \
+    assert_equals "deflated" "$METHODS" "they are" && \
+    echo -n "  Cleaning up..." && rm -rf temp $JFN $DFN && echo " done."
+}
+
+function run_test_27 {
+    local JFN1=jf1.jar
+    local JFN2=jf2.jar
+    local JFN=jf.jar
+    local JFN_AGAIN=jf-again.jar
+    local PARALLEL=-Djava.util.concurrent.ForkJoinPool.common.parallelism=4
+    echo "Running test 27 [compressing the entries in parallel]..." && \
+    echo -n "  Cleaning up..." && rm -rf temp1 temp2 $JFN $JFN1 $JFN2 $JFN_AGAIN && echo " done." && \
+    echo -n "  Compiling everything using JVMCH..." && \
+    java $PARALLEL -jar ../$JAR \
+        compile-java-files temp1 $JFN1 --compression 9 data.java \
+        --then compile-java-files temp2 $JFN2 --in-memory --compression 1 main.java \
+        --then merge-jar-files $JFN $JFN1 $JFN2 --compression 5 \
+        --then merge-jar-files $JFN_AGAIN $JFN1 $JFN2 --compression 5 \
+        --then annotate-jar-with-main-class-attribute $JFN $JFN \
+        && echo " done." && \
+    echo -n "  Running the result... " && local RESULT=`java -jar $JFN` && \
+    local EXPECTED=`echo "10"` && assert_equals "$EXPECTED" "$RESULT" "prints 10 as expected" && \
+    echo -n "  Checking the merged entries... " && \
+    local ENTRIES=`unzip -Z -1 $JFN_AGAIN | wc -l` && assert_equals "102" "$ENTRIES" "all are there" && \
+    echo -n "  Merging once again using JVMCH..." && \
+    java $PARALLEL -jar ../$JAR merge-jar-files $JFN $JFN1 $JFN2 --compression 5 && echo " done." && \
+    echo -n "  Checking that the result is the same..." && cmp -s $JFN $JFN_AGAIN && echo " it is." && \
+    echo -n "  Cleaning up..." && rm -rf temp1 temp2 $JFN $JFN1 $JFN2 $JFN_AGAIN && echo " done."
+}
+
+function run_test_28 {
+    local JFN=jf.jar
+    local SFN=shrunk.jar
+    echo "Running test 28 [removing the classes unreachable from the main class]..." && \
+    echo -n "  Cleaning up..." && rm -rf temp $JFN $SFN && echo " done." && \
+    echo -n "  Compiling everything using JVMCH... " && \
+    local KEPT=`java -jar ../$JAR \
+        compile-java-files temp $JFN data.java main.java unused.java \
+        --then annotate-jar-with-main-class-attribute $JFN $JFN \
+        --then shrink-jar $JFN $SFN --verbose` && \
+    assert_equals "Kept 2 of 3 classes" "$KEPT" "keeps the classes reachable from the main class" && \
+    echo -n "  Running the result... " && local RESULT=`java -jar $SFN` && \
+    local EXPECTED=`echo "10"` && assert_equals "$EXPECTED" "$RESULT" "prints 10 as expected" && \
+    echo -n "  Checking the classes... " && \
+    local CLASSES=`unzip -Z -1 $SFN | grep '[.]class$' | sort` && \
+    assert_equals "`printf "data.class\nmain.class"`" "$CLASSES" "they are data and main" && \
+    echo -n "  Keeping a class explicitly using JVMCH... " && \
+    local KEPT=`java -jar ../$JAR shrink-jar $JFN $SFN --keep unused --verbose` && \
+    assert_equals "Kept 3 of 3 classes" "$KEPT" "keeps all the classes" && \
+    echo -n "  Cleaning up..." && rm -rf temp $JFN $SFN && echo " done."
+}
+
+function run_test_29 {
+    local JFN1=jf1.jar
+    local JFN2=jf2.jar
+    echo "Running test 29 [cleaning up the temporary directories in the background]..." && \
+    echo -n "  Cleaning up..." && rm -rf temp $JFN1 $JFN2 && echo " done." && \
+    echo -n "  Compiling twice in the same temporary directory using JVMCH..." && \
+    mkdir -p temp/stale && \
+    java -jar ../$JAR \
+        compile-java-files temp $JFN1 data.java main.java \
+        --then compile-java-files temp $JFN2 main.java data.java \
+        && echo " done." && \
+    echo -n "  Running the results... " && local RESULT=`java -cp $JFN1 main; java -cp $JFN2 main` && \
+    local EXPECTED=`printf "10\n10"` && \
+    assert_equals "$EXPECTED" "$RESULT" "print 10 when run" && \
+    echo -n "  Checking that nothing else is left... " && local FILES=`ls -A` && \
+    local EXPECTED_FILES=`printf "data.java\n$JFN1\n$JFN2\nmain.java"` && \
+    assert_equals "$EXPECTED_FILES" "$FILES" "contains only the sources and the results" && \
+    echo -n "  Cleaning up..." && rm -rf temp $JFN1 $JFN2 && echo " done."
+}
+
+function run_test_30 {
+    local JFN=jf.jar
+    echo "Running test 30 [recompiling only the changed sources and their dependents]..." && \
+    echo -n "  Cleaning up..." && rm -rf temp state work marker $JFN && echo " done." && \
+    echo -n "  Compiling everything using JVMCH..." && \
+    mkdir work && cp Greeter.java.1 work/Greeter.java && \
+    java -jar ../$JAR \
+        compile-java-files temp $JFN --incremental state Main.java work/Greeter.java Other.java Lonely.java \
+        --then annotate-jar-with-main-class-attribute $JFN $JFN \
+        && echo " done." && \
+    echo -n "  Running the result... " && local RESULT=`java -jar $JFN` && \
+    assert_equals "hello 1" "$RESULT" "prints 'hello 1' as expected" && \
+    echo -n "  Changing Greeter.java and compiling again using JVMCH..." && \
+    touch marker && sleep 1 && cp Greeter.java.2 work/Greeter.java && \
+    java -jar ../$JAR \
+        compile-java-files temp $JFN --incremental state Main.java work/Greeter.java Other.java Lonely.java \
+        --then annotate-jar-with-main-class-attribute $JFN $JFN \
+        && echo " done." && \
+    echo -n "  Running the result... " && local RESULT=`java -jar $JFN` && \
+    assert_equals "bye 1" "$RESULT" "prints 'bye 1' as expected" && \
+    echo -n "  Checking what is recompiled... " && \
+    local RECOMPILED=`find state -name '*.class' -newer marker | sort` && \
+    local EXPECTED=`printf "state/classes/Greeter.class\nstate/classes/Main.class"` && \
+    assert_equals "$EXPECTED" "$RECOMPILED" "only Greeter and Main" && \
+    echo -n "  Checking the classes... " && local CLASSES=`unzip -Z -1 $JFN | grep '[.]class$' | sort | tr '\n' ' '` && \
+    assert_equals "Greeter.class Lonely\$Inner.class Lonely.class Main.class Other.class " "$CLASSES" "all are there" && \
+    echo -n "  Changing Greeter.java and killing the compilation in the middle..." && \
+    cp Greeter.java.1 work/Greeter.java && \
+    { timeout -s KILL 1 java -jar ../$JAR \
+        compile-java-files temp $JFN --incremental state Main.java work/Greeter.java Other.java Lonely.java; \
+      true; } > /dev/null 2>&1 && echo " done." && \
+    echo -n "  Changing Greeter.java back and compiling again using JVMCH..." && \
+    cp Greeter.java.2 work/Greeter.java && \
+    java -jar ../$JAR \
+        compile-java-files temp $JFN --incremental state Main.java work/Greeter.java Other.java Lonely.java \
+        --then annotate-jar-with-main-class-attribute $JFN $JFN \
+        && echo " done." && \
+    echo -n "  Running the result... " && local RESULT=`java -jar $JFN` && \
+    assert_equals "bye 1" "$RESULT" "prints 'bye 1' as expected" && \
+    echo -n "  Checking the classes... " && local CLASSES=`unzip -Z -1 $JFN | grep '[.]class$' | sort | tr '\n' ' '` && \
+    assert_equals "Greeter.class Lonely\$Inner.class Lonely.class Main.class Other.class " "$CLASSES" "all are there" && \
+    echo -n "  Cleaning up..." && rm -rf temp state work marker $JFN && echo " done."
+}
+
+function run_test_31 {
+    echo "Running test 31 [batch compilation with admission control]..." && \
+    echo -n "  Cleaning up..." && rm -rf a.jar b.jar c.jar manifest.txt report.txt && echo " done." && \
+    printf "%s\n%s\n%s\n" "a.jar aplusb.java" "b.jar print8.java" "c.jar --in-memory aplusb.java" > manifest.txt && \
+    echo -n "  Compiling the batch one at a time using JVMCH... " && \
+    local RESULT=`java -jar ../$JAR compile-java-batch manifest.txt report.txt --threads 1 --max-queued 1 --annotate` && \
+    assert_equals "Admission control: 0 rejected, at most 0 waiting at once" "$RESULT" "nothing waits" && \
+    echo -n "  Compiling the batch with a tiny heap budget using JVMCH... " && \
+    local RESULT=`java -jar ../$JAR compile-java-batch manifest.txt report.txt --threads 3 --heap-budget 1 --annotate | sed 's/at most [0-9]* waiting/at most N waiting/'` && \
+    assert_equals "Admission control: 0 rejected, at most N waiting at once" "$RESULT" "nothing is rejected" && \
+    echo -n "  Checking the report... " && local RESULT=`grep -c '"success":true' report.txt` && \
+    assert_equals "3" "$RESULT" "all compilations succeed" && \
+    echo -n "  Running the results... " && local RESULT=`echo "3 4" | java -jar a.jar; java -jar b.jar; echo "1 2" | java -jar c.jar` && \
+    local EXPECTED=`printf "7\n9\n3\n"` && assert_equals "$EXPECTED" "$RESULT" "prints 7, 9 and 3 as expected" && \
+    echo -n "  Compiling a batch which overflows its queue, then another one, by the server... " && \
+    local RESULT=`printf "%s\n%s\n" \
+        "compile-java-batch manifest.txt report.txt --threads 3 --heap-budget 1 --max-queued 1" \
+        "compile-java-batch manifest.txt report.txt --threads 3 --max-queued 5" \
+        | java -jar ../$JAR serve-requests | grep "Admission control" | tail -n 1` && \
+    assert_equals "| Admission control: 0 rejected, at most 0 waiting at once" "$RESULT" "the second batch is not affected by the first one" && \
+    echo -n "  Checking the report... " && local RESULT=`grep -c '"success":true' report.txt` && \
+    assert_equals "3" "$RESULT" "all compilations of the second batch succeed" && \
+    echo -n "  Cleaning up..." && rm -rf a.jar b.jar c.jar manifest.txt report.txt && echo " done."
+}
+
+function run_test_32 {
+    local JFN=jf.jar
+    echo "Running test 32 [compilation with a deadline]..." && \
+    echo -n "  Cleaning up..." && rm -rf temp state huge single $JFN && echo " done." && \
+    echo -n "  Generating a source file with many classes..." && mkdir huge && \
+    { echo "public class huge { public static void main(String[] args) { System.out.println(Filler0.value()); } }"; \
+      for i in `seq 0 1999`; do echo "class Filler$i { static int value() { return $i + Filler$(( (i + 1) % 2000 )).class.getName().length(); } }"; done; \
+    } > huge/huge.java && echo " done." && \
+    echo -n "  Compiling aplusb.java with a generous deadline using JVMCH..." && \
+    java -jar ../$JAR compile-java-files temp $JFN --deadline 60 aplusb.java && echo " done." && \
+    echo -n "  Running the result... " && local RESULT=`echo "3 4" | java -cp $JFN aplusb` && \
+    assert_equals "7" "$RESULT" "prints 7 as expected" && rm $JFN && \
+    echo -n "  Compiling the huge source with a short deadline using JVMCH... " && \
+    local RESULT=`expect_exit_code 124 java -jar ../$JAR compile-java-files temp $JFN --incremental state --deadline 0.5 huge/huge.java` && \
+    assert_equals "Error: the compilation has been cancelled, as it has not finished in 0.5 seconds." "$RESULT" "is cancelled as expected" && \
+    echo -n "  Checking what is left... " && local LEFT=`ls -A | tr '\n' ' '` && \
+    assert_equals "aplusb.java huge " "$LEFT" "neither classes nor directories" && \
+    echo -n "  Compiling the huge source in memory with a short deadline using JVMCH... " && \
+    local RESULT=`expect_exit_code 124 java -jar ../$JAR compile-java-files temp $JFN --in-memory --deadline 0.5 huge/huge.java` && \
+    assert_equals "Error: the compilation has been cancelled, as it has not finished in 0.5 seconds." "$RESULT" "is cancelled as expected" && \
+    echo -n "  Generating a source file with a single huge class..." && mkdir single && \
+    { echo "import java.util.*; import java.util.stream.*;"; echo "public class single {"; \
+      for i in `seq 0 999`; do echo "    static List<String> m$i(List<Integer> xs) { return xs.stream().map(x -> x * $i)" \
+          ".filter(x -> x % 3 == 0).map(x -> Optional.of(x).map(y -> y + 1).orElseGet(() -> $i))" \
+          ".map(String::valueOf).collect(Collectors.toList()); }"; done; \
+      echo "}"; \
+    } > single/single.java && echo " done." && \
+    echo -n "  Compiling the huge class with a short deadline using JVMCH... " && \
+    local STARTED=`date +%s%N` && \
+    local RESULT=`expect_exit_code 124 java -jar ../$JAR compile-java-files temp $JFN --deadline 3 single/single.java` && \
+    local ELAPSED=$(( (`date +%s%N` - STARTED) / 1000000 )) && \
+    assert_equals "Error: the compilation has been cancelled, as it has not finished in 3 seconds." "$RESULT" "is cancelled as expected" && \
+    echo -n "  Checking that it has not waited for javac... " && \
+    assert_equals "1" "$(( ELAPSED < 6000 ))" "it has not, as it took $ELAPSED ms" && \
+    echo -n "  Cleaning up..." && rm -rf temp state huge single $JFN && echo " done."
+}
+
+function run_test_33 {
+    local JFN=jf.jar
+    echo "Running test 33 [bounded compiler diagnostics]..." && \
+    echo -n "  Cleaning up..." && rm -rf temp $JFN && echo " done." && \
+    echo -n "  Compiling it with the number of diagnostics limited using JVMCH... " && \
+    local RESULT=`expect_exit_code 1 java -jar ../$JAR compile-java-files temp $JFN \
+        --diagnostics-format compact --max-diagnostics 2 broken.java | cut -f 1,2,4,5,6` && \
+    local EXPECTED=`printf "%s\t%s\t%s\t%s\t%s\n" \
+        diagnostic error 2 23 compiler.err.cant.resolve.location \
+        diagnostic error 3 23 compiler.err.cant.resolve.location; printf "omitted\t48\n"` && \
+    assert_equals "$EXPECTED" "$RESULT" "prints two diagnostics and a summary" && \
+    echo -n "  Compiling it with the size of diagnostics limited using JVMCH... " && \
+    local RESULT=`expect_exit_code 1 java -jar ../$JAR compile-java-files temp $JFN \
+        --max-diagnostic-bytes 1000 broken.java | wc -c` && \
+    assert_equals "1" "$(( RESULT <= 1100 ))" "prints no more than asked for and a summary" && \
+    echo -n "  Compiling it in memory with the number of errors limited using JVMCH... " && \
+    local RESULT=`expect_exit_code 1 java -jar ../$JAR compile-java-files temp $JFN --in-memory \
+        --diagnostics-format compact --max-errors 3 broken.java | cut -f 1,2,4` && \
+    local EXPECTED=`printf "%s\t%s\t%s\n" diagnostic error 2 diagnostic error 3 diagnostic error 4; printf "stopped\t3\n"` && \
+    assert_equals "$EXPECTED" "$RESULT" "stops after three errors" && \
+    echo -n "  Checking that there is no result... " && local RESULT=`ls -A | tr '\n' ' '` && \
+    assert_equals "broken.java temp " "$RESULT" "there is none" && \
+    echo -n "  Cleaning up..." && rm -rf temp $JFN && echo " done."
+}
+
+function run_test_34 {
+    local JFN=jf.jar
+    echo "Running test 34 [isolation of compilations sharing a JVM]..." && \
+    echo -n "  Cleaning up..." && rm -rf temp1 temp2 err.txt $JFN && echo " done." && \
+    echo -n "  Compiling lib.java, then user.java, in a chain using JVMCH... " && \
+    local RESULT=`expect_exit_code 1 java -jar ../$JAR \
+        compile-java-files temp1 $JFN lib.java --then compile-java-files temp2 $JFN user.java` && \
+    assert_contains "error: cannot find symbol" "$RESULT" "the second one does not see the first one" && \
+    echo -n "  Compiling them the same way in memory using JVMCH... " && \
+    local RESULT=`expect_exit_code 1 java -jar ../$JAR \
+        compile-java-files temp1 $JFN --in-memory lib.java --then compile-java-files temp2 $JFN --in-memory user.java` && \
+    assert_contains "error: cannot find symbol" "$RESULT" "the second one does not see the first one" && \
+    echo -n "  Compiling binary nonsense by the server... " && \
+    local RESULT=`echo "compile-java-files temp1 $JFN source.java" | java -jar ../$JAR serve-requests 2> err.txt | grep -c "^| .*$UNMAPPABLE_CHARACTER"` && \
+    assert_equals "0 yes" "`cat err.txt | wc -c` $( [ "$RESULT" -gt 0 ] && echo yes )" "the errors are in the response" && \
+    echo -n "  Cleaning up..." && rm -rf temp1 temp2 err.txt $JFN && echo " done."
+}
+
+function run_test_35 {
+    local JFN=jf.jar
+    local PARALLEL=-Djava.util.concurrent.ForkJoinPool.common.parallelism=4
+    echo "Running test 35 [searching for main classes in parallel]..." && \
+    echo -n "  Cleaning up..." && rm -rf temp many annotated.jar $JFN && echo " done." && \
+    echo -n "  Generating a source file with 600 classes, three of them main ones..." && mkdir many && \
+    for i in `seq 100 699`; do \
+      if [ $i == 200 ] || [ $i == 400 ] || [ $i == 650 ]; then \
+        echo "class C$i { public static void main(String[] args) { System.out.println(\"C$i \" + Base.twice($i)); } }"; \
+      else \
+        echo "class C$i { static int value() { return Base.twice($i); } }"; \
+      fi; \
+    done > many/many.java && echo " done." && \
+    echo -n "  Compiling it using JVMCH..." && \
+    java -jar ../$JAR compile-java-files temp $JFN Base.java many/many.java && echo " done." && \
+    local MAINS=`unzip -Z -1 $JFN | grep -E '^C(200|400|650)[.]class$' | sed 's/[.]class$//' | tr '\n' ' '` && \
+    local FIRST=`echo $MAINS | cut -d ' ' -f 1` && \
+    echo -n "  Annotating it without --use-first using JVMCH... " && \
+    local RESULT=`expect_exit_code 1 java $PARALLEL -jar ../$JAR annotate-jar-with-main-class-attribute $JFN annotated.jar` && \
+    assert_contains "or equivalent constructions: $MAINS" "$RESULT " "reports all main classes in the order of the entries" && \
+    echo -n "  Annotating it with --use-first using JVMCH... " && \
+    local RESULT=`java $PARALLEL -jar ../$JAR annotate-jar-with-main-class-attribute $JFN annotated.jar --use-first --verbose` && \
+    assert_equals "Setting the Main-Class attribute to $FIRST" "$RESULT" "chooses the earliest entry" && \
+    echo -n "  Running the result... " && local RESULT=`java -jar annotated.jar | cut -d ' ' -f 1` && \
+    assert_equals "$FIRST" "$RESULT" "runs the earliest main class" && \
+    echo -n "  Cleaning up..." && rm -rf temp many annotated.jar $JFN && echo " done."
+}
+
 function run_tests {
     pushd_silent 01 && run_test_01 && popd_silent && \
     pushd_silent 02 && run_test_02 && popd_silent && \
@@ -267,7 +787,28 @@ function run_tests {
     pushd_silent 11 && run_test_11 && popd_silent && \
     pushd_silent 12 && run_test_12 && popd_silent && \
     pushd_silent 13 && run_test_13 && popd_silent && \
-    pushd_silent 14 && run_test_14 && popd_silent
+    pushd_silent 14 && run_test_14 && popd_silent && \
+    pushd_silent 15 && run_test_15 && popd_silent && \
+    pushd_silent 16 && run_test_16 && popd_silent && \
+    pushd_silent 17 && run_test_17 && popd_silent && \
+    pushd_silent 18 && run_test_18 && popd_silent && \
+    pushd_silent 19 && run_test_19 && popd_silent && \
+    pushd_silent 20 && run_test_20 && popd_silent && \
+    pushd_silent 21 && run_test_21 && popd_silent && \
+    pushd_silent 22 && run_test_22 && popd_silent && \
+    pushd_silent 23 && run_test_23 && popd_silent && \
+    pushd_silent 24 && run_test_24 && popd_silent && \
+    pushd_silent 25 && run_test_25 && popd_silent && \
+    pushd_silent 26 && run_test_26 && popd_silent && \
+    pushd_silent 27 && run_test_27 && popd_silent && \
+    pushd_silent 28 && run_test_28 && popd_silent && \
+    pushd_silent 29 && run_test_29 && popd_silent && \
+    pushd_silent 30 && run_test_30 && popd_silent && \
+    pushd_silent 31 && run_test_31 && popd_silent && \
+    pushd_silent 32 && run_test_32 && popd_silent && \
+    pushd_silent 33 && run_test_33 && popd_silent && \
+    pushd_silent 34 && run_test_34 && popd_silent && \
+    pushd_silent 35 && run_test_35 && popd_silent
 }
 
 pushd_silent .. && \